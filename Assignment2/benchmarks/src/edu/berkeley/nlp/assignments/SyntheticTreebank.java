@@ -0,0 +1,85 @@
+package edu.berkeley.nlp.assignments;
+
+import edu.berkeley.nlp.ling.Tree;
+
+import java.util.*;
+
+/**
+ * Generates trees from a fixed, hand-written PCFG over Penn-style categories.  The grammar is small but has the
+ * ambiguity (PP attachment, noun/verb words, coordination) which makes the chart fill up like it does on real data.
+ * All fixtures come from a fixed seed, so no treebank is needed and two runs time exactly the same work.
+ */
+public class SyntheticTreebank {
+  static final String[][] PRODUCTIONS = {
+      {"S", "NP VP", "NP VP .", "S CC S ."},
+      {"NP", "DT NN", "DT JJ NN", "NNS", "PRP", "NP PP", "DT ADJP NN", "NP CC NP"},
+      {"VP", "VBZ NP", "VBD NP PP", "VBD", "VBZ ADJP", "RB VP", "VBD S"},
+      {"PP", "IN NP"},
+      {"ADJP", "JJ", "RB JJ"},
+  };
+  static final int WORDS_PER_TAG = 40;
+  static final int MAX_DEPTH = 6;
+
+  Random random;
+  Map<String, List<String[]>> expansions = new HashMap<String, List<String[]>>();
+
+  public Tree<String> generateTree() {
+    return new Tree<String>("ROOT", Collections.singletonList(generate("S", 0)));
+  }
+
+  private Tree<String> generate(String label, int depth) {
+    List<String[]> labelExpansions = expansions.get(label);
+    if (labelExpansions == null) {
+      return new Tree<String>(label, Collections.singletonList(new Tree<String>(generateWord(label))));
+    }
+    // past the depth limit, always take the first (non-recursive) expansion so generation terminates
+    String[] expansion = labelExpansions.get(depth >= MAX_DEPTH ? 0 : random.nextInt(labelExpansions.size()));
+    List<Tree<String>> children = new ArrayList<Tree<String>>();
+    for (String child : expansion) {
+      children.add(generate(child, depth + 1));
+    }
+    return new Tree<String>(label, children);
+  }
+
+  private String generateWord(String tag) {
+    if (tag.equals(".")) return ".";
+    int wordNumber = random.nextInt(WORDS_PER_TAG);
+    // words with low numbers are shared between noun and verb tags, to create lexical ambiguity
+    if (wordNumber < 5 && (tag.startsWith("NN") || tag.startsWith("VB")))
+      return "ambig" + wordNumber;
+    return tag.toLowerCase(Locale.ROOT) + wordNumber;
+  }
+
+  public List<Tree<String>> generateTrees(int numTrees) {
+    List<Tree<String>> trees = new ArrayList<Tree<String>>();
+    for (int i = 0; i < numTrees; i++) {
+      trees.add(generateTree());
+    }
+    return trees;
+  }
+
+  /**
+   * Generates test sentences whose length is exactly the requested length.
+   */
+  public List<List<String>> generateSentences(int length, int numSentences) {
+    List<List<String>> sentences = new ArrayList<List<String>>();
+    for (int attempt = 0; sentences.size() < numSentences && attempt < 1000000; attempt++) {
+      List<String> yield = generateTree().getYield();
+      if (yield.size() == length)
+        sentences.add(yield);
+    }
+    if (sentences.isEmpty()) throw new RuntimeException("Could not generate sentences of length " + length);
+    return sentences;
+  }
+
+  public SyntheticTreebank(long seed) {
+    this.random = new Random(seed);
+    for (String[] production : PRODUCTIONS) {
+      List<String[]> labelExpansions = new ArrayList<String[]>();
+      for (int i = 1; i < production.length; i++) {
+        labelExpansions.add(production[i].split(" "));
+      }
+      expansions.put(production[0], labelExpansions);
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package edu.berkeley.nlp.assignments;
+
+import edu.berkeley.nlp.ling.Tree;
+import edu.berkeley.nlp.util.BoundedList;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times tagging synthetic sentences of a fixed length with the HMM tagger trained on synthetic tagged sentences.  A
+ * beam width of 0 decodes exactly with the ArrayViterbiDecoder, any other width with the BeamDecoder, as with -beam.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class TaggerBenchmark {
+
+  @Param({"5", "10", "15", "20", "30"})
+  int length;
+
+  @Param({"0", "5"})
+  int beamWidth;
+
+  @Param("2000")
+  int trainSentences;
+
+  @Param("1")
+  long seed;
+
+  POSTaggerTester.POSTagger posTagger;
+  List<List<String>> sentences;
+  int next;
+
+  private static List<POSTaggerTester.TaggedSentence> generateTaggedSentences(SyntheticTreebank treebank, int numSentences) {
+    List<POSTaggerTester.TaggedSentence> taggedSentences = new ArrayList<POSTaggerTester.TaggedSentence>();
+    for (Tree<String> tree : treebank.generateTrees(numSentences)) {
+      List<String> words = new BoundedList<String>(tree.getYield(), POSTaggerTester.START_WORD, POSTaggerTester.STOP_WORD);
+      List<String> tags = new BoundedList<String>(tree.getPreTerminalYield(), POSTaggerTester.START_TAG, POSTaggerTester.STOP_TAG);
+      taggedSentences.add(new POSTaggerTester.TaggedSentence(words, tags));
+    }
+    return taggedSentences;
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    SyntheticTreebank treebank = new SyntheticTreebank(seed);
+    POSTaggerTester.LocalTrigramScorer localTrigramScorer = new POSTaggerTester.HMMTagScorer(0.8, 0.15, 0.05, 5);
+    POSTaggerTester.TrellisDecoder<POSTaggerTester.State> trellisDecoder = (beamWidth > 0 ? new POSTaggerTester.BeamDecoder(beamWidth) : new POSTaggerTester.ArrayViterbiDecoder());
+    posTagger = new POSTaggerTester.POSTagger(localTrigramScorer, trellisDecoder);
+    posTagger.train(generateTaggedSentences(treebank, trainSentences));
+    sentences = new ArrayList<List<String>>();
+    for (List<String> sentence : treebank.generateSentences(length, 10)) {
+      sentences.add(new BoundedList<String>(sentence, POSTaggerTester.START_WORD, POSTaggerTester.STOP_WORD));
+    }
+  }
+
+  @Benchmark
+  public List<String> tag() {
+    List<String> sentence = sentences.get(next);
+    next = (next + 1) % sentences.size();
+    return posTagger.tag(sentence);
+  }
+}
@@ -671,15 +671,15 @@ public class PCFGParserTester {
     }
 
     System.out.print("Loading training trees (sections 2-21) ... ");
-    List<Tree<String>> trainTrees = readTrees(basePath, 200, 2199, maxTrainLength);
+    List<Tree<String>> trainTrees = readTrees(basePath, 200, 2199, maxTrainLength, false);
     System.out.println("done. (" + trainTrees.size() + " trees)");
     List<Tree<String>> testTrees;
     if (testMode.equalsIgnoreCase("validate")) {
       System.out.print("Loading validation trees (section 22) ... ");
-      testTrees = readTrees(basePath, 2200, 2299, maxTestLength);
+      testTrees = readTrees(basePath, 2200, 2299, maxTestLength, true);
     } else {
       System.out.print("Loading test trees (section 23) ... ");
-      testTrees = readTrees(basePath, 2300, 2319, maxTestLength);
+      testTrees = readTrees(basePath, 2300, 2319, maxTestLength, true);
     }
     System.out.println("done. (" + testTrees.size() + " trees)");
 
@@ -703,13 +703,18 @@ public class PCFGParserTester {
     eval.display(true);
   }
 
-  private static List<Tree<String>> readTrees(String basePath, int low, int high, int maxLength) {
+  /**
+   * Reads and normalizes the trees no longer than maxLength.  Trees that will be passed over repeatedly are frozen, so
+   * their yields are computed once.
+   */
+  private static List<Tree<String>> readTrees(String basePath, int low, int high, int maxLength, boolean freeze) {
     Collection<Tree<String>> trees = PennTreebankReader.readTrees(basePath, low, high);
-    // normalize trees
-    Trees.TreeTransformer<String> treeTransformer = new Trees.StandardTreeNormalizer();
+    // normalize trees; they were just read, so in place
+    Trees.TreeTransformer<String> treeTransformer = new Trees.StandardTreeNormalizer(true);
     List<Tree<String>> normalizedTreeList = new ArrayList<Tree<String>>();
     for (Tree<String> tree : trees) {
       Tree<String> normalizedTree = treeTransformer.transformTree(tree);
+      if (freeze) normalizedTree.freeze();
       if (normalizedTree.getYield().size() > maxLength)
         continue;
 //      System.out.println(Trees.PennTreeRenderer.render(normalizedTree));
@@ -1,6 +1,6 @@
 package edu.berkeley.nlp.assignments;
 
-import edu.berkeley.nlp.io.PennTreebankReader;
+import edu.berkeley.nlp.io.TreebankCache;
 import edu.berkeley.nlp.ling.Tree;
 import edu.berkeley.nlp.ling.Trees;
 import edu.berkeley.nlp.util.*;
@@ -403,6 +403,330 @@ public class POSTaggerTester {
     }
   }
 
+  /**
+   * A decoder which calls the LocalTrigramScorer itself as its forward pass reaches each state, so no Trellis is
+   * built.  POSTagger decodes this way whenever its decoder implements this interface.
+   */
+  interface ScoringDecoder {
+    /**
+     * Returns the best path of states through the sentence, from State.getStartState() to the stop state, with the
+     * same meaning as TrellisDecoder.getBestPath() on the sentence's trellis.
+     */
+    List<State> getBestPath(List<String> sentence, LocalTrigramScorer localTrigramScorer);
+  }
+
+  /**
+   * A Viterbi decoder over integer states.  A State is identified within its position by the pair of tag ids
+   * (previousPreviousTag, previousTag), packed as previousPreviousTag * tagCapacity + previousTag, so pi and the
+   * backpointers are flat double[position][tagCapacity^2] and int[position][tagCapacity^2] arrays, kept and reused
+   * between sentences.  A single forward pass relaxes every transition out of the states reached at each position, in
+   * position order, and the best path is read back through the backpointers; nothing recurses, so sentence length is
+   * only limited by memory.
+   * <p/>
+   * Transitions come either from a prebuilt Trellis, or, as a ScoringDecoder, straight from the scorer: each reached
+   * state is scored once, when the forward pass gets to it, and neither the lattice nor its backward copy is built.  A
+   * TagIdScorer is called with tag ids, and fills arrays owned by the decoder, so such a pass allocates nothing per
+   * state.
+   * <p/>
+   * Tag ids are assigned as tags are met, and tagCapacity (a power of two) only grows; the rare decode which meets more
+   * tags than fit restarts with a larger capacity.
+   */
+  static class ArrayViterbiDecoder implements TrellisDecoder<State>, ScoringDecoder {
+    final Indexer<String> tagIndexer = new Indexer<>();
+    int tagCapacity = 64;
+    double[][] pi = new double[0][];
+    int[][] backPointers = new int[0][];
+    // ids of the states reached at each position, in the order they were reached, and their State objects
+    int[][] reachedIds = new int[0][];
+    State[][] reachedStates = new State[0][];
+    int[] numReached = new int[0];
+
+    // for a TagIdScorer: its tag ids mapped to ours and back (-1 for our tags it does not know), and buffers it fills
+    TagIdScorer syncedScorer;
+    int[] decoderTagIds;
+    int[] scorerTagIds;
+    int[] scoredTagIds;
+    double[] scoredLogScores;
+
+    /**
+     * Where the forward pass gets the transitions out of a reached state.
+     */
+    static abstract class TransitionSource {
+      /**
+       * Calls reach() for every transition out of the state at the position, returning false as soon as a tag does not
+       * fit in tagCapacity.  The State object is only there for states reached through reach(State, ...).
+       */
+      abstract boolean relaxTransitions(State state, int stateId, int position, double stateScore);
+    }
+
+    public List<State> getBestPath(final Trellis<State> trellis) {
+      return decode(trellis.getStartState(), trellis.getEndState(), new TransitionSource() {
+        boolean relaxTransitions(State state, int stateId, int position, double stateScore) {
+          Counter<State> forwardTransitions = trellis.getForwardTransitions(state);
+          for (State nextState : forwardTransitions.keySet()) {
+            if (! reach(nextState, stateScore + forwardTransitions.getCount(nextState), stateId)) return false;
+          }
+          return true;
+        }
+      });
+    }
+
+    public List<State> getBestPath(final List<String> sentence, final LocalTrigramScorer localTrigramScorer) {
+      if (localTrigramScorer instanceof TagIdScorer) return getBestPathByTagIds(sentence, (TagIdScorer) localTrigramScorer);
+      return decode(State.getStartState(), State.getStopState(sentence.size() + 2), new TransitionSource() {
+        boolean relaxTransitions(State state, int stateId, int position, double stateScore) {
+          LocalTrigramContext localTrigramContext = new LocalTrigramContext(sentence, state.getPosition(), state.getPreviousPreviousTag(), state.getPreviousTag());
+          Counter<String> tagScores = localTrigramScorer.getLogScoreCounter(localTrigramContext);
+          for (String tag : tagScores.keySet()) {
+            if (! reach(state.getNextState(tag), stateScore + tagScores.getCount(tag), stateId)) return false;
+          }
+          return true;
+        }
+      });
+    }
+
+    private List<State> getBestPathByTagIds(final List<String> sentence, final TagIdScorer tagIdScorer) {
+      syncTagIds(tagIdScorer);
+      return decode(State.getStartState(), State.getStopState(sentence.size() + 2), new TransitionSource() {
+        boolean relaxTransitions(State state, int stateId, int position, double stateScore) {
+          int previousTag = stateId % tagCapacity;
+          int numTags = tagIdScorer.getLogScores(sentence, position, getScorerTagId(stateId / tagCapacity), getScorerTagId(previousTag), scoredTagIds, scoredLogScores);
+          for (int i = 0; i < numTags; i++) {
+            int tag = decoderTagIds[scoredTagIds[i]];
+            if (tag >= tagCapacity) return false;
+            reach(position + 1, previousTag * tagCapacity + tag, null, stateScore + scoredLogScores[i], stateId);
+          }
+          return true;
+        }
+      });
+    }
+
+    /**
+     * Maps the scorer's tag ids to ours, once per scorer (and again if it learns new tags).
+     */
+    private void syncTagIds(TagIdScorer tagIdScorer) {
+      Indexer<String> scorerTags = tagIdScorer.getTagIndexer();
+      if (tagIdScorer == syncedScorer && decoderTagIds.length == scorerTags.size()) return;
+      syncedScorer = tagIdScorer;
+      decoderTagIds = new int[scorerTags.size()];
+      for (int tag = 0; tag < scorerTags.size(); tag++) {
+        decoderTagIds[tag] = tagIndexer.addAndGetIndex(scorerTags.get(tag));
+      }
+      scorerTagIds = new int[tagIndexer.size()];
+      Arrays.fill(scorerTagIds, -1);
+      for (int tag = 0; tag < scorerTags.size(); tag++) {
+        scorerTagIds[decoderTagIds[tag]] = tag;
+      }
+      scoredTagIds = new int[scorerTags.size()];
+      scoredLogScores = new double[scorerTags.size()];
+    }
+
+    private int getScorerTagId(int tag) {
+      return (tag < scorerTagIds.length ? scorerTagIds[tag] : -1);
+    }
+
+    private List<State> decode(State startState, State endState, TransitionSource transitionSource) {
+      while (true) {
+        List<State> path = decodeWithCapacity(startState, endState, transitionSource);
+        if (path != null) return path;
+        tagCapacity *= 2;
+        pi = new double[0][];
+        backPointers = new int[0][];
+        reachedIds = new int[0][];
+        reachedStates = new State[0][];
+        numReached = new int[0];
+      }
+    }
+
+    private int getStateId(State state) {
+      int previousPreviousTag = tagIndexer.addAndGetIndex(state.getPreviousPreviousTag());
+      int previousTag = tagIndexer.addAndGetIndex(state.getPreviousTag());
+      if (previousPreviousTag >= tagCapacity || previousTag >= tagCapacity) return -1;
+      return previousPreviousTag * tagCapacity + previousTag;
+    }
+
+    private void ensureCapacity(int numPositions) {
+      int numStates = tagCapacity * tagCapacity;
+      if (pi.length < numPositions) {
+        int oldLength = pi.length;
+        pi = Arrays.copyOf(pi, numPositions);
+        backPointers = Arrays.copyOf(backPointers, numPositions);
+        reachedIds = Arrays.copyOf(reachedIds, numPositions);
+        reachedStates = Arrays.copyOf(reachedStates, numPositions);
+        numReached = Arrays.copyOf(numReached, numPositions);
+        for (int position = oldLength; position < numPositions; position++) {
+          pi[position] = new double[numStates];
+          Arrays.fill(pi[position], Double.NaN);
+          backPointers[position] = new int[numStates];
+          reachedIds[position] = new int[16];
+          reachedStates[position] = new State[16];
+        }
+      }
+    }
+
+    /**
+     * Runs the forward pass and the backtrace, or returns null if a tag did not fit in tagCapacity.  Unreached states
+     * have a pi of NaN, which is restored for the states this decode reached before it returns.
+     */
+    private List<State> decodeWithCapacity(State startState, State endState, TransitionSource transitionSource) {
+      int numPositions = endState.getPosition() + 1;
+      ensureCapacity(numPositions);
+      Arrays.fill(numReached, 0, numPositions, 0);
+      // the scores are in log space, so the start state scores 0
+      boolean fits = reach(startState, 0.0, -1);
+      for (int position = 0; fits && position < numPositions - 1; position++) {
+        int numExpanded = selectStatesToExpand(position);
+        // the end state is the only state at the last position, which is never expanded
+        for (int i = 0; fits && i < numExpanded; i++) {
+          int stateId = reachedIds[position][i];
+          fits = transitionSource.relaxTransitions(reachedStates[position][i], stateId, position, pi[position][stateId]);
+        }
+      }
+      List<State> path = null;
+      int endId = getStateId(endState);
+      boolean reachesEnd = (fits && endId >= 0 && ! Double.isNaN(pi[numPositions - 1][endId]));
+      if (reachesEnd) {
+        path = new ArrayList<>(numPositions);
+        for (int position = numPositions - 1, stateId = endId; position >= 0; stateId = backPointers[position--][stateId]) {
+          path.add(State.buildState(tagIndexer.get(stateId / tagCapacity), tagIndexer.get(stateId % tagCapacity), position));
+        }
+        Collections.reverse(path);
+      }
+      for (int position = 0; position < numPositions; position++) {
+        for (int i = 0; i < numReached[position]; i++) {
+          pi[position][reachedIds[position][i]] = Double.NaN;
+          reachedStates[position][i] = null;
+        }
+      }
+      if (fits && endId >= 0 && ! reachesEnd) throw new RuntimeException("No path through the trellis reaches " + endState);
+      return path;
+    }
+
+    /**
+     * Chooses which of the states reached at the position have their transitions relaxed, by moving them to the front
+     * of the position's reached lists, and returns how many there are.  Exact decoding expands them all.
+     */
+    int selectStatesToExpand(int position) {
+      return numReached[position];
+    }
+
+    /**
+     * Relaxes the state with a path of the given score from the previous state; returns false if the state's tags do
+     * not fit in tagCapacity.
+     */
+    boolean reach(State state, double score, int previousStateId) {
+      int stateId = getStateId(state);
+      if (stateId < 0) return false;
+      reach(state.getPosition(), stateId, state, score, previousStateId);
+      return true;
+    }
+
+    /**
+     * Relaxes the state with the given id at the position, recording it (and its State object, if there is one) as
+     * reached the first time.  A state reached only by impossible transitions keeps its first backpointer.
+     */
+    void reach(int position, int stateId, State state, double score, int previousStateId) {
+      double[] positionPi = pi[position];
+      double oldScore = positionPi[stateId];
+      if (Double.isNaN(oldScore)) {
+        int n = numReached[position]++;
+        if (n == reachedIds[position].length) {
+          reachedIds[position] = Arrays.copyOf(reachedIds[position], 2 * n);
+          reachedStates[position] = Arrays.copyOf(reachedStates[position], 2 * n);
+        }
+        reachedIds[position][n] = stateId;
+        reachedStates[position][n] = state;
+      } else if (! (score > oldScore)) {
+        return;
+      }
+      positionPi[stateId] = score;
+      backPointers[position][stateId] = previousStateId;
+    }
+  }
+
+  /**
+   * Beam search: the ArrayViterbiDecoder, except that at each position only the beamWidth best states reached so far
+   * are expanded.  The best are picked with a fixed-size min-heap of (score, reached index) pairs in primitive arrays,
+   * so a position costs O(n log beamWidth) for n reached states, with no allocation.  The result can be worse than the
+   * exact Viterbi path, never better; with a beam at least as wide as the number of tag pairs it is the same.
+   */
+  static class BeamDecoder extends ArrayViterbiDecoder {
+    final int beamWidth;
+    final double[] heapScores;
+    final int[] heapIndexes;
+
+    int selectStatesToExpand(int position) {
+      int n = numReached[position];
+      if (n <= beamWidth) return n;
+      double[] positionPi = pi[position];
+      int[] ids = reachedIds[position];
+      int heapSize = 0;
+      for (int i = 0; i < n; i++) {
+        double score = positionPi[ids[i]];
+        if (heapSize < beamWidth) {
+          heapScores[heapSize] = score;
+          heapIndexes[heapSize] = i;
+          siftUp(heapSize++);
+        } else if (score > heapScores[0]) {
+          heapScores[0] = score;
+          heapIndexes[0] = i;
+          siftDown(0, heapSize);
+        }
+      }
+      // swap the kept states to the front; in increasing order, no swap moves a state another one has already placed
+      Arrays.sort(heapIndexes, 0, heapSize);
+      State[] states = reachedStates[position];
+      for (int j = 0; j < heapSize; j++) {
+        int i = heapIndexes[j];
+        int id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+        State state = states[i];
+        states[i] = states[j];
+        states[j] = state;
+      }
+      return heapSize;
+    }
+
+    private void siftUp(int node) {
+      while (node > 0) {
+        int parent = (node - 1) / 2;
+        if (! (heapScores[node] < heapScores[parent])) return;
+        swap(node, parent);
+        node = parent;
+      }
+    }
+
+    private void siftDown(int node, int heapSize) {
+      while (true) {
+        int smallest = node;
+        int left = 2 * node + 1;
+        int right = left + 1;
+        if (left < heapSize && heapScores[left] < heapScores[smallest]) smallest = left;
+        if (right < heapSize && heapScores[right] < heapScores[smallest]) smallest = right;
+        if (smallest == node) return;
+        swap(node, smallest);
+        node = smallest;
+      }
+    }
+
+    private void swap(int i, int j) {
+      double score = heapScores[i];
+      heapScores[i] = heapScores[j];
+      heapScores[j] = score;
+      int index = heapIndexes[i];
+      heapIndexes[i] = heapIndexes[j];
+      heapIndexes[j] = index;
+    }
+
+    public BeamDecoder(int beamWidth) {
+      if (beamWidth < 1) throw new IllegalArgumentException("Beam width must be positive, got " + beamWidth);
+      this.beamWidth = beamWidth;
+      this.heapScores = new double[beamWidth];
+      this.heapIndexes = new int[beamWidth];
+    }
+  }
+
   static class POSTagger {
 
     final LocalTrigramScorer localTrigramScorer;
@@ -468,10 +792,16 @@ public class POSTaggerTester {
       return trellis;
     }
 
-    // to tag a sentence: build its trellis and find a path through that trellis
+    // to tag a sentence: build its trellis and find a path through that trellis, or let a scoring decoder score the
+    // states it reaches itself, without a trellis
     public List<String> tag(List<String> sentence) {
-      Trellis<State> trellis = buildTrellis(sentence);
-      List<State> states = trellisDecoder.getBestPath(trellis);
+      List<State> states;
+      if (trellisDecoder instanceof ScoringDecoder) {
+        states = ((ScoringDecoder) trellisDecoder).getBestPath(sentence, localTrigramScorer);
+      } else {
+        Trellis<State> trellis = buildTrellis(sentence);
+        states = trellisDecoder.getBestPath(trellis);
+      }
       List<String> tags = State.toTagList(states);
       tags = stripBoundaryTags(tags);
       return tags;
@@ -589,6 +919,24 @@ public class POSTaggerTester {
     void validate(List<LabeledLocalTrigramContext> localTrigramContexts);
   }
 
+  /**
+   * A LocalTrigramScorer which can also score a position over integer tag ids, writing into arrays the caller owns, so
+   * a decoder needs no context object, no Counter and no tag strings per state.
+   */
+  public interface TagIdScorer extends LocalTrigramScorer {
+    /**
+     * The scorer's tag ids: every tag it can return, and every tag it knows as a previous tag.
+     */
+    Indexer<String> getTagIndexer();
+
+    /**
+     * Writes the ids and log scores of the tags allowed at the position, after the two previous tags (by id, or -1 for
+     * a tag the scorer does not know), into tagIds and logScores, and returns how many it wrote.  Both arrays must
+     * have room for getTagIndexer().size() entries.  The tags and scores are the ones getLogScoreCounter() returns.
+     */
+    int getLogScores(List<String> words, int position, int previousPreviousTag, int previousTag, int[] tagIds, double[] logScores);
+  }
+
   /**
    * The MostFrequentTagScorer gives each test word the tag it was seen with
    * most often in training (or the tag with the most seen word types if the
@@ -673,6 +1021,214 @@ public class POSTaggerTester {
     }
   }
 
+  /**
+   * Sorts words into the unknown word types of the HMMTagScorer (all digits, all letters, all caps, etc). A word's
+   * type is the first of the patterns below that matches the whole word, and is found by a single scan over the word's
+   * characters instead of by trying a regular expression per type. Each type is numbered by its signature, and the
+   * signature of every word classified is cached, so a word is only scanned once.
+   */
+  static class UnknownWordClassifier {
+
+    // The signatures of the unknown word types, in the order the patterns are tried.
+    static final int FIRST_WORD = 0;                // any word at the start of the sentence
+    static final int SYMBOL = 1;                    // [^a-zA-Z0-9]+
+    static final int APOSTROPHE_WORD = 2;           // '[a-zA-Z]+
+    static final int NEGATION = 3;                  // [a-zA-Z]'[a-zA-Z]
+    static final int APOSTROPHE_ALPHA = 4;          // [a-zA-Z]+'[a-zA-Z]+
+    static final int INIT_CAP = 5;                  // [A-Z][a-z]+
+    static final int CAP_AND_PERIOD = 6;            // [A-Z]\.
+    static final int ABBREVIATION = 7;              // [a-zA-Z]{1,5}\.([a-zA-Z](\.([a-zA-Z](\.([a-zA-Z](\.([a-zA-Z]\.?)?)?)?)?)?)?)?
+    static final int ALL_CAPS = 8;                  // [A-Z]+
+    static final int LOWER_CASE = 9;                // [a-z]+
+    static final int ALL_LETTERS = 10;              // [a-zA-Z]+
+    static final int ALPHA_AND_DASH = 11;           // [a-zA-Z\-]+
+    static final int ALPHA_AND_AND = 12;            // [a-zA-Z&]+
+    static final int DIGIT_AND_PERIOD = 13;         // [0-9]*\.[0-9]+
+    static final int DIGIT_AND_COMMA = 14;          // [0-9]*,[0-9]+
+    static final int DIGIT_AND_COMMA_AND_PERIOD = 15; // [0-9]+,[0-9]+\.[0-9]+
+    static final int TWO_DIGIT_NUMBER = 16;         // [0-9]{1,2}
+    static final int FOUR_DIGIT_NUMBER = 17;        // [0-9]{1,4}
+    static final int NUMBER = 18;                   // [0-9]+
+    static final int DIGIT_AND_DASH = 19;           // [0-9\-]+
+    static final int DIGIT_AND_SLASH = 20;          // [0-9\\]+
+    static final int DIGIT_AND_FORWARD_SLASH = 21;  // [0-9/]+
+    static final int DIGIT_AND_ALPHA = 22;          // [a-zA-Z0-9]+
+    static final int ALPHA_AND_DIGIT_AND_DASH = 23; // [a-zA-Z0-9\-]+
+    static final int DIGIT_AND_ALPHA_AND_SYMBOL_DASH = 24; // [a-zA-Z0-9\.'\-]+
+    static final int ALPHA_AND_SYMBOL = 25;         // [^0-9]+
+    static final int DIGIT_AND_SYMBOL = 26;         // [^a-zA-Z]+
+    static final int OTHER = 27;                    // anything else, including the empty word
+    static final int NUM_SIGNATURES = 28;
+
+    // The classes of characters the patterns tell apart, as bits, so the classes seen in a word form a mask.
+    private static final int UPPER = 1;
+    private static final int LOWER = 2;
+    private static final int DIGIT = 4;
+    private static final int PERIOD = 8;
+    private static final int COMMA = 16;
+    private static final int APOSTROPHE = 32;
+    private static final int DASH = 64;
+    private static final int AMPERSAND = 128;
+    private static final int SLASH = 256;
+    private static final int BACKSLASH = 512;
+    private static final int OTHER_CHARACTER = 1024;
+    private static final int LETTER = UPPER | LOWER;
+
+    // The cache is cleared when it grows past this many words, so tagging a long stream of new words stays bounded.
+    static final int MAX_CACHED_WORDS = 1 << 16;
+
+    Map<String, Integer> wordSignatures = new HashMap<>();
+
+    /**
+     * A new counter for each signature, indexed by signature.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Counter<String>[] newSignatureCounters() {
+      Counter<String>[] signatureCounters = new Counter[NUM_SIGNATURES];
+      for (int signature = 0; signature < NUM_SIGNATURES; signature++) {
+        signatureCounters[signature] = new Counter<>();
+      }
+      return signatureCounters;
+    }
+
+    /**
+     * Gets the signature of the unknown word type of the word.
+     * @param word
+     * The unknown word
+     * @param position
+     * The position of the word in the sentence
+     * @return
+     * The signature of the unknown word type, between 0 and NUM_SIGNATURES - 1.
+     */
+    int getSignature(String word, int position) {
+      if (position == 0) return FIRST_WORD;
+      Integer signature = wordSignatures.get(word);
+      if (signature == null) {
+        if (wordSignatures.size() >= MAX_CACHED_WORDS) wordSignatures.clear();
+        signature = classify(word);
+        wordSignatures.put(word, signature);
+      }
+      return signature;
+    }
+
+    private static int getCharacterClass(char c) {
+      if (c >= 'A' && c <= 'Z') return UPPER;
+      if (c >= 'a' && c <= 'z') return LOWER;
+      if (c >= '0' && c <= '9') return DIGIT;
+      switch (c) {
+        case '.': return PERIOD;
+        case ',': return COMMA;
+        case '\'': return APOSTROPHE;
+        case '-': return DASH;
+        case '&': return AMPERSAND;
+        case '/': return SLASH;
+        case '\\': return BACKSLASH;
+        default: return OTHER_CHARACTER;
+      }
+    }
+
+    /**
+     * True if the mask has no classes outside the allowed ones.
+     */
+    private static boolean hasOnly(int classes, int allowedClasses) {
+      return (classes & ~allowedClasses) == 0;
+    }
+
+    /**
+     * Gets the signature of a word anywhere but at the start of the sentence. One scan collects the classes of the
+     * characters, the classes after the first character, and where and how often the punctuation the patterns place
+     * occurs; each pattern is then a test on those.
+     * @param word
+     * The unknown word
+     * @return
+     * The signature of the first pattern matching the whole word.
+     */
+    static int classify(String word) {
+      int length = word.length();
+      if (length == 0) return OTHER;
+      int firstClass = getCharacterClass(word.charAt(0));
+      int restClasses = 0;
+      int numPeriods = 0, numCommas = 0, numApostrophes = 0;
+      int firstPeriod = -1, firstComma = -1, firstApostrophe = -1;
+      for (int i = 0; i < length; i++) {
+        int characterClass = (i == 0 ? firstClass : getCharacterClass(word.charAt(i)));
+        if (i > 0) restClasses |= characterClass;
+        if (characterClass == PERIOD) {
+          if (numPeriods++ == 0) firstPeriod = i;
+        } else if (characterClass == COMMA) {
+          if (numCommas++ == 0) firstComma = i;
+        } else if (characterClass == APOSTROPHE) {
+          if (numApostrophes++ == 0) firstApostrophe = i;
+        }
+      }
+      int classes = firstClass | restClasses;
+
+      if ((classes & (LETTER | DIGIT)) == 0)
+        return SYMBOL;
+      if (firstClass == APOSTROPHE && restClasses != 0 && hasOnly(restClasses, LETTER))
+        return APOSTROPHE_WORD;
+      if (hasOnly(classes, LETTER | APOSTROPHE) && numApostrophes == 1 && firstApostrophe > 0 && firstApostrophe < length - 1)
+        return length == 3 ? NEGATION : APOSTROPHE_ALPHA;
+      if (firstClass == UPPER && restClasses == LOWER)
+        return INIT_CAP;
+      if (length == 2 && firstClass == UPPER && restClasses == PERIOD)
+        return CAP_AND_PERIOD;
+      if (hasOnly(classes, LETTER | PERIOD) && isAbbreviation(word, firstPeriod))
+        return ABBREVIATION;
+      if (classes == UPPER)
+        return ALL_CAPS;
+      if (classes == LOWER)
+        return LOWER_CASE;
+      if (hasOnly(classes, LETTER))
+        return ALL_LETTERS;
+      if (hasOnly(classes, LETTER | DASH))
+        return ALPHA_AND_DASH;
+      if (hasOnly(classes, LETTER | AMPERSAND))
+        return ALPHA_AND_AND;
+      if (hasOnly(classes, DIGIT | PERIOD) && numPeriods == 1 && firstPeriod < length - 1)
+        return DIGIT_AND_PERIOD;
+      if (hasOnly(classes, DIGIT | COMMA) && numCommas == 1 && firstComma < length - 1)
+        return DIGIT_AND_COMMA;
+      if (hasOnly(classes, DIGIT | COMMA | PERIOD) && numCommas == 1 && numPeriods == 1
+          && firstComma > 0 && firstPeriod > firstComma + 1 && firstPeriod < length - 1)
+        return DIGIT_AND_COMMA_AND_PERIOD;
+      if (classes == DIGIT)
+        return length <= 2 ? TWO_DIGIT_NUMBER : length <= 4 ? FOUR_DIGIT_NUMBER : NUMBER;
+      if (hasOnly(classes, DIGIT | DASH))
+        return DIGIT_AND_DASH;
+      if (hasOnly(classes, DIGIT | BACKSLASH))
+        return DIGIT_AND_SLASH;
+      if (hasOnly(classes, DIGIT | SLASH))
+        return DIGIT_AND_FORWARD_SLASH;
+      if (hasOnly(classes, LETTER | DIGIT))
+        return DIGIT_AND_ALPHA;
+      if (hasOnly(classes, LETTER | DIGIT | DASH))
+        return ALPHA_AND_DIGIT_AND_DASH;
+      if (hasOnly(classes, LETTER | DIGIT | PERIOD | APOSTROPHE | DASH))
+        return DIGIT_AND_ALPHA_AND_SYMBOL_DASH;
+      if ((classes & DIGIT) == 0)
+        return ALPHA_AND_SYMBOL;
+      if ((classes & LETTER) == 0)
+        return DIGIT_AND_SYMBOL;
+      return OTHER;
+    }
+
+    /**
+     * True if a word of letters and periods is one to five letters and a period, followed by up to four letters
+     * alternating with periods.
+     */
+    private static boolean isAbbreviation(String word, int firstPeriod) {
+      if (firstPeriod < 1 || firstPeriod > 5) return false;
+      int restLength = word.length() - firstPeriod - 1;
+      if (restLength > 8) return false;
+      for (int i = 0; i < restLength; i++) {
+        boolean isPeriod = (word.charAt(firstPeriod + 1 + i) == '.');
+        if (isPeriod != (i % 2 == 1)) return false;
+      }
+      return true;
+    }
+  }
+
   /**
    * The HMMTagScorer gives each test word the multiplication of the
    * probability of seen this tag given the preceding two tags, and the
@@ -682,7 +1238,7 @@ public class POSTaggerTester {
    *
    * This tagger uses linear interpolation to smooth the unseen trigram tags.
    */
-  static class HMMTagScorer implements LocalTrigramScorer {
+  static class HMMTagScorer implements TagIdScorer {
 
     // Used to store the values of the lambdas of the linear interpolation.
     double trigramTagLambda;
@@ -696,40 +1252,26 @@ public class POSTaggerTester {
     // Stores the mapping between how many times a tag appeared against a given word. [word -> (tag -> count)]
     CounterMap<String, String> wordsToTags = new CounterMap<>();
 
-    // Count the trigram, bigrams and unigrams in the training set.
-    Counter<String> trigramTags = new Counter<>();
-    Counter<String> bigramTags = new Counter<>();
-    Counter<String> tags = new Counter<>();
+    // Tags are numbered as they are first seen in training.
+    final Indexer<String> tagIndexer = new Indexer<>();
+
+    // Count the trigram, bigrams and unigrams in the training set, in dense arrays over tag ids: the trigram
+    // (t1, t2, t3) is at (t1 * tagStride + t2) * tagStride + t3, and the bigram (t2, t3) at t2 * tagStride + t3.
+    int tagStride;
+    double[] trigramCounts = new double[0];
+    double[] bigramCounts = new double[0];
+    double[] unigramCounts = new double[0];
+
+    // Sorts infrequent and unseen words into unknown word types.
+    final UnknownWordClassifier unknownWordClassifier = new UnknownWordClassifier();
+
+    // Count the tags seen in each type of infrequent words, indexed by the type's signature.
+    Counter<String>[] signatureTagCounters = UnknownWordClassifier.newSignatureCounters();
+
+    // The tags seen with each known word, and with each unknown word type, by tag id.
+    Map<String, TagCounts> knownWordTagCounts = new HashMap<>();
+    TagCounts[] signatureTagCounts = new TagCounts[UnknownWordClassifier.NUM_SIGNATURES];
 
-    // Count the tags seen in the types of infrequent words.
-    Counter<String> unknownWordTags = new Counter<>();
-    Counter<String> unknownNumber = new Counter<>();
-    Counter<String> unknownSymbol = new Counter<>();
-    Counter<String> unknownAlphaAndSymbol = new Counter<>();
-    Counter<String> unknownDigitAndSymbol = new Counter<>();
-    Counter<String> unknownAllLetters = new Counter<>();
-    Counter<String> unknownLowerCase = new Counter<>();
-    Counter<String> unknownAlphaAndAnd = new Counter<>();
-    Counter<String> unknownAlphaAndDigitAndDash = new Counter<>();
-    Counter<String> unknownAlphaAndDash = new Counter<>();
-    Counter<String> unknownApostropheWord = new Counter<>();
-    Counter<String> unknownApostropheAlpha = new Counter<>();
-    Counter<String> unknownNegation = new Counter<>();
-    Counter<String> unknownTwoDigitNumTags = new Counter<>();
-    Counter<String> unknownFourDigitNumTags = new Counter<>();
-    Counter<String> unknownDigitAndAlpha = new Counter<>();
-    Counter<String> unknownDigitAndDash = new Counter<>();
-    Counter<String> unknownDigitAndAlphaAndSymbolDash = new Counter<>();
-    Counter<String> unknownDigitAndSlash = new Counter<>();
-    Counter<String> unknownDigitAndForwardSlash = new Counter<>();
-    Counter<String> unknownDigitAndComma = new Counter<>();
-    Counter<String> unknownDigitAndCommaAndPeriod = new Counter<>();
-    Counter<String> unknownDigitAndPeriod = new Counter<>();
-    Counter<String> unknownWordAllCaps = new Counter<>();
-    Counter<String> unknownCapAndPeriod = new Counter<>();
-    Counter<String> unknownAbbreviation = new Counter<>();
-    Counter<String> unknownInitCap = new Counter<>();
-    Counter<String> unknownFirstWord = new Counter<>();
     Counter<String> unknownWords = new Counter<>();
 
     // Store the total number of words and tags seen during training.
@@ -753,160 +1295,124 @@ public class POSTaggerTester {
      */
     public Counter<String> getLogScoreCounter(LocalTrigramContext localTrigramContext) {
       int position = localTrigramContext.getPosition();
-      String word = localTrigramContext.getWords().get(position);
-
-      // If the word is known, initialize it with the Map of tags seen during training.
-      Counter<String> tagCounter;
-      if (wordsToTags.keySet().contains(word)) {
-        tagCounter = wordsToTags.getCounter(word);
-      }
-      // else, initialize it with its corresponding unknown type map.
-      else {
-        tagCounter = GetUnknownTypeCounter(word, localTrigramContext.getPosition());
-      }
+      TagCounts tagCounts = getTagCounts(localTrigramContext.getWords().get(position), position);
+      int previousPreviousTag = tagIndexer.indexOf(localTrigramContext.getPreviousPreviousTag());
+      int previousTag = tagIndexer.indexOf(localTrigramContext.getPreviousTag());
 
       // Used to store the log probability of each possible tag.
       Counter<String> logScoreCounter = new Counter<>();
-
-      // For each tag seem during training associated with the current word, calculate the
-      // smoothed probability.
-      for (String tag : tagCounter.keySet()) {
-        String currentTrigram = makeTrigramString(localTrigramContext.getPreviousPreviousTag(), localTrigramContext.getPreviousTag(), tag);
-        String currentBigram = makeBigramString(localTrigramContext.getPreviousTag(), tag);
-        double trigramCount = trigramTags.getCount(currentTrigram);
-        double bigramCount = bigramTags.getCount(currentBigram);
-        double unigramCount = tags.getCount(tag);
-
-        // Avoid NaN by returning zero when the denominator is zero.
-        double trigramProbability = bigramCount == 0 ? 0 : trigramTagLambda *(trigramCount / bigramCount);
-        double bigramProbability = unigramCount == 0 ? 0 : bigramTagLambda *(bigramCount / unigramCount);
-        double unigramProbability = unigramTagLambda *(unigramCount / totalTags);
-
-        // Smoothed probability of the tag
-        double tagProbability = trigramProbability + bigramProbability + unigramProbability;
-
-        // Probability of the emission given the tag.
-        double emissionProbability = tagCounter.getCount(tag) / totalTags;
-
-        // Probability Formula.
-        double logScore = Math.log(tagProbability * emissionProbability);
-
-        // Store the probability of the tag.
-        logScoreCounter.setCount(tag, logScore);
+      for (int i = 0; i < tagCounts.tagIds.length; i++) {
+        int tag = tagCounts.tagIds[i];
+        logScoreCounter.setCount(tagIndexer.get(tag), getLogScore(previousPreviousTag, previousTag, tag, tagCounts.counts[i]));
       }
-
-      // Return the built mapping
       return logScoreCounter;
     }
 
+    public Indexer<String> getTagIndexer() {
+      return tagIndexer;
+    }
 
     /**
-     * Makes a trigram string based on the tags passed in the constructor.
+     * Scores the tags of the word at the position like getLogScoreCounter(), but by tag id and into the given arrays,
+     * without allocating anything.
+     */
+    public int getLogScores(List<String> words, int position, int previousPreviousTag, int previousTag, int[] tagIds, double[] logScores) {
+      TagCounts tagCounts = getTagCounts(words.get(position), position);
+      int numTags = tagCounts.tagIds.length;
+      for (int i = 0; i < numTags; i++) {
+        int tag = tagCounts.tagIds[i];
+        tagIds[i] = tag;
+        logScores[i] = getLogScore(previousPreviousTag, previousTag, tag, tagCounts.counts[i]);
+      }
+      return numTags;
+    }
+
+    /**
+     * The smoothed log probability of the tag after the two previous tags, times the probability of the emission.
      * @param previousPreviousTag
-     * The previous to the previous tag
+     * The id of the previous to the previous tag, or -1 if it was not seen in training
      * @param previousTag
-     * The previous tag
-     * @param currentTag
-     * The current tag
-     * @return
-     * The trigram string with the tags concatenated by white spaces
+     * The id of the previous tag, or -1 if it was not seen in training
+     * @param tag
+     * The id of the current tag
+     * @param emissionCount
+     * How many times the current tag was seen with the word (or its unknown word type)
      */
-    private String makeTrigramString(String previousPreviousTag, String previousTag, String currentTag) {
-      StringBuilder sb = new StringBuilder(previousPreviousTag.length() + previousTag.length() + currentTag.length() + 2);
-      sb.append(previousPreviousTag);
-      sb.append(" ");
-      sb.append(previousTag);
-      sb.append(" ");
-      sb.append(currentTag);
+    private double getLogScore(int previousPreviousTag, int previousTag, int tag, double emissionCount) {
+      double trigramCount = (previousPreviousTag < 0 || previousTag < 0) ? 0 : trigramCounts[(previousPreviousTag * tagStride + previousTag) * tagStride + tag];
+      double bigramCount = previousTag < 0 ? 0 : bigramCounts[previousTag * tagStride + tag];
+      double unigramCount = unigramCounts[tag];
 
-      return sb.toString();
+      // Avoid NaN by returning zero when the denominator is zero.
+      double trigramProbability = bigramCount == 0 ? 0 : trigramTagLambda *(trigramCount / bigramCount);
+      double bigramProbability = unigramCount == 0 ? 0 : bigramTagLambda *(bigramCount / unigramCount);
+      double unigramProbability = unigramTagLambda *(unigramCount / totalTags);
+
+      // Smoothed probability of the tag
+      double tagProbability = trigramProbability + bigramProbability + unigramProbability;
+
+      // Probability of the emission given the tag.
+      double emissionProbability = emissionCount / totalTags;
+
+      // Probability Formula.
+      return Math.log(tagProbability * emissionProbability);
     }
 
     /**
-     * Makes a bigram string based on the tags passed.
-     * @param previousTag
-     * The previous tag
-     * @param currentTag
-     * The current tag
-     * @return
-     * The bigram string with the tags concatenated by white spaces
+     * The tags seen with a word during training, as parallel arrays of tag ids and counts.
      */
-    private String makeBigramString(String previousTag, String currentTag) {
-      StringBuilder sb = new StringBuilder(previousTag.length() + currentTag.length() + 1);
-      sb.append(previousTag);
-      sb.append(" ");
-      sb.append(currentTag);
+    static class TagCounts {
+      final int[] tagIds;
+      final double[] counts;
+
+      TagCounts(Counter<String> tagCounter, Indexer<String> tagIndexer) {
+        tagIds = new int[tagCounter.size()];
+        counts = new double[tagCounter.size()];
+        int i = 0;
+        for (String tag : tagCounter.keySet()) {
+          tagIds[i] = tagIndexer.indexOf(tag);
+          counts[i] = tagCounter.getCount(tag);
+          i++;
+        }
+      }
+    }
 
-      return sb.toString();
+    /**
+     * The tag counts of the word if it is known, otherwise of its unknown word type (converted the first time the type
+     * is met).
+     */
+    private TagCounts getTagCounts(String word, int position) {
+      TagCounts tagCounts = knownWordTagCounts.get(word);
+      if (tagCounts != null) return tagCounts;
+      int signature = unknownWordClassifier.getSignature(word, position);
+      tagCounts = signatureTagCounts[signature];
+      if (tagCounts == null) {
+        tagCounts = new TagCounts(signatureTagCounters[signature], tagIndexer);
+        signatureTagCounts[signature] = tagCounts;
+      }
+      return tagCounts;
     }
 
     /**
-     * Gets the Map of the corresponding unknown word
-     * @param word
-     * The unknown word
-     * @param pos
-     * The position of the word in the sentence
-     * @return
-     * The Map of the unknown word type.
+     * Makes room in the n-gram count arrays for the given number of tags, keeping the counts so far.
      */
-    private Counter<String> GetUnknownTypeCounter(String word, int pos)
-    {
-      if (pos == 0)
-        return unknownFirstWord;
-      else if (word.matches("^[^a-zA-Z0-9]+$"))
-        return unknownSymbol;
-      else if (word.matches("^'[a-zA-Z]+$"))
-        return unknownApostropheWord;
-      else if (word.matches("^[a-zA-Z]'[a-zA-Z]$"))
-        return unknownNegation;
-      else if (word.matches("^[a-zA-Z]+'[a-zA-Z]+$"))
-        return unknownApostropheAlpha;
-      else if (word.matches("^[A-Z][a-z]+$"))
-        return unknownInitCap;
-      else if (word.matches("^[A-Z]\\.$"))
-        return unknownCapAndPeriod;
-      else if (word.matches("^[a-zA-Z]{1,5}\\.([a-zA-Z]{1,1}(\\.([a-zA-Z]{1,1}(\\.([a-zA-Z]{1,1}(\\.([a-zA-Z]{1,1}(\\.)?)?)?)?)?)?)?)?$"))
-        return unknownAbbreviation;
-      else if (word.matches("^[A-Z]+$"))
-        return unknownWordAllCaps;
-      else if (word.matches("^[a-z]+$"))
-        return unknownLowerCase;
-      else if (word.matches("[a-zA-Z]+$"))
-        return unknownAllLetters;
-      else if (word.matches("[a-zA-Z\\-]+$"))
-        return unknownAlphaAndDash;
-      else if (word.matches("[a-zA-Z&]+$"))
-        return unknownAlphaAndAnd;
-      else if (word.matches("^[0-9]*\\.[0-9]+$"))
-        return unknownDigitAndPeriod;
-      else if (word.matches("^[0-9]*,[0-9]+$"))
-        return unknownDigitAndComma;
-      else if (word.matches("^[0-9]+,[0-9]+\\.[0-9]+$"))
-        return unknownDigitAndCommaAndPeriod;
-      else if (word.matches("^[0-9]{1,2}$"))
-        return unknownTwoDigitNumTags;
-      else if (word.matches("^[0-9]{1,4}$"))
-        return unknownFourDigitNumTags;
-      else if (word.matches("^[0-9]+$"))
-        return unknownNumber;
-      else if (word.matches("^[0-9\\-]+$"))
-        return unknownDigitAndDash;
-      else if (word.matches("^[0-9\\\\]+$"))
-        return unknownDigitAndSlash;
-      else if (word.matches("^[0-9/]+$"))
-        return unknownDigitAndForwardSlash;
-      else if (word.matches("^[a-zA-Z0-9]+$"))
-        return unknownDigitAndAlpha;
-      else if (word.matches("^[a-zA-Z0-9\\-]+$"))
-        return unknownAlphaAndDigitAndDash;
-      else if (word.matches("[a-zA-Z0-9\\.'\\-]+$"))
-        return unknownDigitAndAlphaAndSymbolDash;
-      else if (word.matches("^[^0-9]+$"))
-        return unknownAlphaAndSymbol;
-      else if (word.matches("^[^a-zA-Z]+$"))
-        return unknownDigitAndSymbol;
-      else
-        return unknownWordTags;
+    private void ensureTagStride(int numTags) {
+      if (numTags <= tagStride) return;
+      int oldStride = tagStride;
+      double[] oldTrigramCounts = trigramCounts;
+      double[] oldBigramCounts = bigramCounts;
+      tagStride = numTags;
+      trigramCounts = new double[tagStride * tagStride * tagStride];
+      bigramCounts = new double[tagStride * tagStride];
+      unigramCounts = Arrays.copyOf(unigramCounts, tagStride);
+      for (int t2 = 0; t2 < oldStride; t2++) {
+        for (int t3 = 0; t3 < oldStride; t3++) {
+          bigramCounts[t2 * tagStride + t3] = oldBigramCounts[t2 * oldStride + t3];
+          for (int t1 = 0; t1 < oldStride; t1++) {
+            trigramCounts[(t1 * tagStride + t2) * tagStride + t3] = oldTrigramCounts[(t1 * oldStride + t2) * oldStride + t3];
+          }
+        }
+      }
     }
 
     /**
@@ -915,28 +1421,41 @@ public class POSTaggerTester {
      * The TrigramContext with the current word, tag, and previous tags
      */
     public void train(List<LabeledLocalTrigramContext> labeledLocalTrigramContexts) {
+      // number the tags first, so the n-gram count arrays are sized once
+      for (LabeledLocalTrigramContext labeledLocalTrigramContext : labeledLocalTrigramContexts) {
+        tagIndexer.add(labeledLocalTrigramContext.getPreviousPreviousTag());
+        tagIndexer.add(labeledLocalTrigramContext.getPreviousTag());
+        tagIndexer.add(labeledLocalTrigramContext.getCurrentTag());
+      }
+      ensureTagStride(tagIndexer.size());
       // collect word-tag counts
       for (LabeledLocalTrigramContext labeledLocalTrigramContext : labeledLocalTrigramContexts) {
         String word = labeledLocalTrigramContext.getCurrentWord();
         String tag = labeledLocalTrigramContext.getCurrentTag();
         if (!seenWords.contains(word) || unknownWords.getCount(word) < unknownCountCutOff) {
           // word is currently unknown or infrequent, so tally its tag in the corresponding unknown tag counter
-          Counter<String> unknownTypeCounter = GetUnknownTypeCounter(word, labeledLocalTrigramContext.getPosition());
-          unknownTypeCounter.incrementCount(tag, 1.0);
+          int signature = unknownWordClassifier.getSignature(word, labeledLocalTrigramContext.getPosition());
+          signatureTagCounters[signature].incrementCount(tag, 1.0);
           unknownWords.incrementCount(word, 1.0);
         }
-        // Make the trigrams and bigrams to store the count.
-        String trigramStringTags = makeTrigramString(labeledLocalTrigramContext.getPreviousPreviousTag(), labeledLocalTrigramContext.getPreviousTag(), labeledLocalTrigramContext.getCurrentTag());
-        String bigramStringTags = makeBigramString(labeledLocalTrigramContext.getPreviousTag(), labeledLocalTrigramContext.getCurrentTag());
+        // Count the trigram, bigram and unigram of tag ids.
+        int previousPreviousTag = tagIndexer.indexOf(labeledLocalTrigramContext.getPreviousPreviousTag());
+        int previousTag = tagIndexer.indexOf(labeledLocalTrigramContext.getPreviousTag());
+        int currentTag = tagIndexer.indexOf(tag);
 
         wordsToTags.incrementCount(word, tag, 1.0);
-        trigramTags.incrementCount(trigramStringTags, 1.0);
-        bigramTags.incrementCount(bigramStringTags, 1.0);
-        tags.incrementCount(tag, 1.0);
+        trigramCounts[(previousPreviousTag * tagStride + previousTag) * tagStride + currentTag]++;
+        bigramCounts[previousTag * tagStride + currentTag]++;
+        unigramCounts[currentTag]++;
         seenWords.add(word);
         totalTags++;
         totalWords++;
       }
+      knownWordTagCounts = new HashMap<>();
+      for (String word : wordsToTags.keySet()) {
+        knownWordTagCounts.put(word, new TagCounts(wordsToTags.getCounter(word), tagIndexer));
+      }
+      Arrays.fill(signatureTagCounts, null);
     }
 
     public void validate(List<LabeledLocalTrigramContext> labeledLocalTrigramContexts) {
@@ -963,7 +1482,7 @@ public class POSTaggerTester {
   }
 
   public static List<TaggedSentence> readTaggedSentences(String path, int low, int high) {
-    Collection<Tree<String>> trees = PennTreebankReader.readTrees(path, low, high);
+    Collection<Tree<String>> trees = TreebankCache.readTrees(path, low, high);
     List<TaggedSentence> taggedSentences = new ArrayList<>();
     Trees.TreeTransformer<String> treeTransformer = new Trees.EmptyNodeStripper();
     for (Tree<String> tree : trees) {
@@ -1012,6 +1531,39 @@ public class POSTaggerTester {
     latestSubOptimalities = numDecodingInversions;
   }
 
+  /**
+   * Tags the sentences with both taggers, which should share a scorer, and reports how often the approximate tagger's
+   * output differs from the exact one, how much worse it scores when it does, and how long each took.
+   */
+  public static void compareToExactDecoding(POSTagger approximateTagger, POSTagger exactTagger, List<TaggedSentence> taggedSentences) {
+    int numSentencesDiffering = 0;
+    int numTags = 0;
+    int numTagsDiffering = 0;
+    double totalScoreLoss = 0.0;
+    long approximateNanos = 0;
+    long exactNanos = 0;
+    for (TaggedSentence taggedSentence : taggedSentences) {
+      List<String> words = taggedSentence.getWords();
+      long start = System.nanoTime();
+      List<String> approximateTags = approximateTagger.tag(words);
+      long middle = System.nanoTime();
+      List<String> exactTags = exactTagger.tag(words);
+      approximateNanos += middle - start;
+      exactNanos += System.nanoTime() - middle;
+      numTags += exactTags.size();
+      if (approximateTags.equals(exactTags))
+        continue;
+      numSentencesDiffering++;
+      for (int position = 0; position < exactTags.size(); position++) {
+        if (!approximateTags.get(position).equals(exactTags.get(position)))
+          numTagsDiffering++;
+      }
+      totalScoreLoss += exactTagger.scoreTagging(new TaggedSentence(words, exactTags)) - exactTagger.scoreTagging(new TaggedSentence(words, approximateTags));
+    }
+    System.out.println("Differs from exact decoding on " + numSentencesDiffering + " of " + taggedSentences.size() + " sentences (" + numTagsDiffering + " of " + numTags + " tags), mean log score loss on those " + (numSentencesDiffering == 0 ? 0.0 : totalScoreLoss / numSentencesDiffering));
+    System.out.println("Decoding time: " + (approximateNanos / 1000000) + " ms, exact: " + (exactNanos / 1000000) + " ms");
+  }
+
   // pretty-print a pair of taggings for a sentence, possibly suppressing the tags which correctly match
   private static String alignedTaggings(List<String> words, List<String> goldTags, List<String> guessedTags, boolean suppressCorrectTags) {
     StringBuilder goldSB = new StringBuilder("Gold Tags: ");
@@ -1112,6 +1664,12 @@ public class POSTaggerTester {
       verbose = true;
     }
 
+    // Beam width, if decoding with a beam rather than exact Viterbi
+    int beamWidth = 0;
+    if (argMap.containsKey("-beam")) {
+      beamWidth = Integer.parseInt(argMap.get("-beam"));
+    }
+
     if (argMap.containsKey("-hmmArguments"))
     {
       hmmArguments = argMap.get("-hmmArguments");
@@ -1147,7 +1705,8 @@ public class POSTaggerTester {
     LocalTrigramScorer localTrigramScorer = new HMMTagScorer(hmmTrigramLambda, hmmBigramLambda, hmmUnigramLambda, hmmUncommonWordsCutOff);
     // TODO : improve on the GreedyDecoder
     //TrellisDecoder<State> trellisDecoder = new GreedyDecoder<>();
-    TrellisDecoder<State> trellisDecoder = new ViterbiDecoder<>();
+    //TrellisDecoder<State> trellisDecoder = new ViterbiDecoder<>();
+    TrellisDecoder<State> trellisDecoder = (beamWidth > 0 ? new BeamDecoder(beamWidth) : new ArrayViterbiDecoder());
 
     // Train tagger
     POSTagger posTagger = new POSTagger(localTrigramScorer, trellisDecoder);
@@ -1164,5 +1723,9 @@ public class POSTaggerTester {
     
     // Test tagger
     evaluateTagger(posTagger, evalTaggedSentences, trainingVocabulary, verbose);
+    if (beamWidth > 0) {
+      System.out.println("Beam width: " + beamWidth);
+      compareToExactDecoding(posTagger, new POSTagger(localTrigramScorer, new ArrayViterbiDecoder()), evalTaggedSentences);
+    }
   }
 }
@@ -1,5 +1,7 @@
 package edu.berkeley.nlp.assignments;
 
+import edu.berkeley.nlp.io.IOUtils;
+
 import java.util.*;
 import java.io.*;
 
@@ -139,7 +141,8 @@ class SpeechNBestList {
       assert files != null;
       for (int i = 0; i < files.length; i++) {
         File file = files[i];
-        String fileName = file.getName();
+        // a compressed file stands for the file it compresses
+        String fileName = IOUtils.stripCompressionExtension(file.getName());
         if (fileName.startsWith("REF"))
           continue;
         String prefix = fileName;
@@ -172,8 +175,8 @@ class SpeechNBestList {
       return correctSentenceMap;
     }
 
-    private static BufferedReader open(String fileName) throws FileNotFoundException {
-      return new BufferedReader(new FileReader(fileName));
+    private static BufferedReader open(String fileName) throws IOException {
+      return IOUtils.openReader(fileName);
     }
   }
 
@@ -304,7 +304,7 @@ public class WordAlignmentTester {
   private static Map<Integer, Alignment> readAlignments(String fileName) {
     Map<Integer,Alignment> alignments = new HashMap<Integer, Alignment>();
     try {
-      BufferedReader in = new BufferedReader(new FileReader(fileName));
+      BufferedReader in = IOUtils.openReader(fileName);
       while (in.ready()) {
         String line = in.readLine();
         String[] words = line.split("\\s+");
@@ -321,6 +321,7 @@ public class WordAlignmentTester {
         }
         alignment.addAlignment(englishPosition, frenchPosition, type.equals("S"));
       }
+      in.close();
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
@@ -343,8 +344,8 @@ public class WordAlignmentTester {
     String englishFileName = baseFileName + "." + ENGLISH_EXTENSION;
     String frenchFileName = baseFileName + "." + FRENCH_EXTENSION;
     try {
-      BufferedReader englishIn = new BufferedReader(new FileReader(englishFileName));
-      BufferedReader frenchIn = new BufferedReader(new FileReader(frenchFileName));
+      BufferedReader englishIn = IOUtils.openReader(englishFileName);
+      BufferedReader frenchIn = IOUtils.openReader(frenchFileName);
       while (englishIn.ready() && frenchIn.ready()) {
         String englishLine = englishIn.readLine();
         String frenchLine = frenchIn.readLine();
@@ -354,6 +355,8 @@ public class WordAlignmentTester {
           throw new RuntimeException("Sentence ID confusion in file "+baseFileName+", lines were:\n\t"+englishLine+"\n\t"+frenchLine);
         sentencePairs.add(new SentencePair(englishSentenceAndID.getFirst(), baseFileName, englishSentenceAndID.getSecond(), frenchSentenceAndID.getSecond()));
       }
+      englishIn.close();
+      frenchIn.close();
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
@@ -383,13 +386,14 @@ public class WordAlignmentTester {
       public boolean accept(File pathname) {
         if (pathname.isDirectory())
           return true;
-        String name = pathname.getName();
-        return name.endsWith(ENGLISH_EXTENSION);
+        String name = IOUtils.stripCompressionExtension(pathname.getName());
+        // a file that is there both plain and compressed is only read once
+        return name.endsWith(ENGLISH_EXTENSION) && IOUtils.isPreferredVersion(pathname);
       }
     });
     List<String> baseFileNames = new ArrayList<String>();
     for (File englishFile : englishFiles) {
-      String baseFileName = chop(englishFile.getAbsolutePath(), "."+ENGLISH_EXTENSION);
+      String baseFileName = chop(IOUtils.stripCompressionExtension(englishFile.getAbsolutePath()), "."+ENGLISH_EXTENSION);
       baseFileNames.add(baseFileName);
     }
     return baseFileNames;
@@ -1,37 +1,334 @@
 package edu.berkeley.nlp.io;
 
-import java.io.File;
-import java.io.FileFilter;
+import java.io.*;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.GZIPInputStream;
 
 /**
- * Utilities for getting files recursively, with a filter.
+ * Utilities for getting files recursively, with a filter, and for opening possibly compressed corpus files.
  * 
  * @author Dan Klein
  */
 public class IOUtils {
+  /**
+   * The files under the path accepted by the filter, in a stable order: the entries of each directory are visited in
+   * name order.  Directories the filter rejects are not descended into.
+   */
   public static List<File> getFilesUnder(String path, FileFilter fileFilter) {
-    File root = new File(path);
     List<File> files = new ArrayList<File>();
-    addFilesUnder(root, files, fileFilter);
+    for (CorpusFile corpusFile : findFilesUnder(path, fileFilter, 1)) {
+      files.add(corpusFile.getFile());
+    }
     return files;
   }
 
-  private static void addFilesUnder(File root, List<File> files, FileFilter fileFilter) {
-    if (! fileFilter.accept(root)) return;
-    if (root.isFile()) {
-      files.add(root);
-      return;
+  /**
+   * A file found by findFilesUnder(), with the size read while walking, so loaders can split work by bytes without
+   * another stat per file.
+   */
+  public static class CorpusFile {
+    final File file;
+    final long size;
+
+    public File getFile() {
+      return file;
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    public String toString() {
+      return file + " (" + size + " bytes)";
+    }
+
+    CorpusFile(File file, long size) {
+      this.file = file;
+      this.size = size;
     }
-    if (root.isDirectory()) {
-      File[] children = root.listFiles();
-      assert children != null;
-      for (int i = 0; i < children.length; i++) {
-        File child = children[i];
-        addFilesUnder(child, files, fileFilter);
+  }
+
+  /**
+   * Like getFilesUnder(), but returns the sizes too, and lists directories on numThreads threads.  Each entry's
+   * attributes are read once, and the filter is handed a File which answers isDirectory(), isFile(), exists() and
+   * length() from them, so walking costs one stat per entry instead of several.  The order does not depend on the
+   * number of threads.
+   */
+  public static List<CorpusFile> findFilesUnder(String path, FileFilter fileFilter, int numThreads) {
+    Path root = Paths.get(path);
+    BasicFileAttributes attributes = readAttributes(root);
+    if (attributes == null) return new ArrayList<CorpusFile>();
+    if (! fileFilter.accept(new AttributedFile(root, attributes))) return new ArrayList<CorpusFile>();
+    if (! attributes.isDirectory()) {
+      List<CorpusFile> files = new ArrayList<CorpusFile>();
+      if (attributes.isRegularFile()) files.add(new CorpusFile(root.toFile(), attributes.size()));
+      return files;
+    }
+    DirectoryWalk walk = new DirectoryWalk(root, fileFilter, numThreads > 1);
+    if (numThreads <= 1) return walk.compute();
+    ForkJoinPool pool = new ForkJoinPool(numThreads);
+    try {
+      return pool.invoke(walk);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * The total size of the files, in bytes.
+   */
+  public static long getTotalSize(List<CorpusFile> files) {
+    long totalSize = 0;
+    for (CorpusFile file : files) {
+      totalSize += file.getSize();
+    }
+    return totalSize;
+  }
+
+  /**
+   * Splits the files, in order, into at most numParts contiguous runs of roughly equal total size, for loaders which
+   * hand one run to each thread.  A file is never split, so one large file can make its run larger than the rest.
+   */
+  public static List<List<CorpusFile>> partitionBySize(List<CorpusFile> files, int numParts) {
+    List<List<CorpusFile>> parts = new ArrayList<List<CorpusFile>>();
+    long totalSize = getTotalSize(files);
+    long sizeSoFar = 0;
+    int partStart = 0;
+    for (int i = 0; i < files.size(); i++) {
+      sizeSoFar += files.get(i).getSize();
+      // close the run once it reaches its share of the bytes, keeping at least one file for each remaining run
+      long partEndSize = (totalSize * (parts.size() + 1) + numParts - 1) / numParts;
+      boolean lastPart = (parts.size() == numParts - 1);
+      if (! lastPart && (sizeSoFar >= partEndSize || files.size() - i - 1 < numParts - parts.size() - 1)) {
+        parts.add(files.subList(partStart, i + 1));
+        partStart = i + 1;
       }
     }
+    if (partStart < files.size()) parts.add(files.subList(partStart, files.size()));
+    return parts;
   }
 
+  static class DirectoryWalk extends RecursiveTask<List<CorpusFile>> {
+    private static final long serialVersionUID = 1L;
+
+    final Path directory;
+    final FileFilter fileFilter;
+    final boolean parallel;
+
+    /**
+     * Lists the directory in name order; accepted files are added directly, accepted subdirectories are walked by
+     * forked tasks (or in place, when not parallel) and spliced in at their position in the order.
+     */
+    protected List<CorpusFile> compute() {
+      List<Path> children = new ArrayList<Path>();
+      try {
+        DirectoryStream<Path> stream = Files.newDirectoryStream(directory);
+        try {
+          for (Path child : stream) {
+            children.add(child);
+          }
+        } finally {
+          stream.close();
+        }
+      } catch (IOException e) {
+        throw new RuntimeException("Error listing " + directory, e);
+      }
+      Collections.sort(children);
+      // accepted files and subdirectory walks in name order; a walk is joined when its turn comes
+      List<Object> entries = new ArrayList<Object>();
+      for (Path child : children) {
+        BasicFileAttributes attributes = readAttributes(child);
+        if (attributes == null) continue;
+        if (! (attributes.isDirectory() || attributes.isRegularFile())) continue;
+        if (! fileFilter.accept(new AttributedFile(child, attributes))) continue;
+        if (attributes.isDirectory()) {
+          DirectoryWalk walk = new DirectoryWalk(child, fileFilter, parallel);
+          if (parallel) walk.fork();
+          entries.add(walk);
+        } else {
+          entries.add(new CorpusFile(child.toFile(), attributes.size()));
+        }
+      }
+      List<CorpusFile> files = new ArrayList<CorpusFile>();
+      for (Object entry : entries) {
+        if (entry instanceof CorpusFile) {
+          files.add((CorpusFile) entry);
+        } else {
+          DirectoryWalk walk = (DirectoryWalk) entry;
+          files.addAll(parallel ? walk.join() : walk.compute());
+        }
+      }
+      return files;
+    }
+
+    DirectoryWalk(Path directory, FileFilter fileFilter, boolean parallel) {
+      this.directory = directory;
+      this.fileFilter = fileFilter;
+      this.parallel = parallel;
+    }
+  }
+
+  /**
+   * The attributes of the path, following symbolic links, or null if it cannot be read (a dangling link, say), which
+   * File.isFile() and File.isDirectory() would both have reported as false.
+   */
+  private static BasicFileAttributes readAttributes(Path path) {
+    try {
+      return Files.readAttributes(path, BasicFileAttributes.class);
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * A File whose type and size come from attributes already read, for handing to FileFilters during a walk.
+   */
+  static class AttributedFile extends File {
+    private static final long serialVersionUID = 1L;
+
+    final transient BasicFileAttributes attributes;
+
+    public boolean isDirectory() {
+      return attributes.isDirectory();
+    }
+
+    public boolean isFile() {
+      return attributes.isRegularFile();
+    }
+
+    public boolean exists() {
+      return true;
+    }
+
+    public long length() {
+      return attributes.size();
+    }
+
+    AttributedFile(Path path, BasicFileAttributes attributes) {
+      super(path.toString());
+      this.attributes = attributes;
+    }
+  }
+
+  static final String[] COMPRESSED_EXTENSIONS = {".gz", ".xz"};
+
+  public static boolean isCompressed(String fileName) {
+    return getCompressionExtension(fileName) != null;
+  }
+
+  private static String getCompressionExtension(String fileName) {
+    for (String extension : COMPRESSED_EXTENSIONS) {
+      if (fileName.endsWith(extension)) return extension;
+    }
+    return null;
+  }
+
+  /**
+   * The file name without its .gz or .xz extension, if it has one.
+   */
+  public static String stripCompressionExtension(String fileName) {
+    String extension = getCompressionExtension(fileName);
+    if (extension == null) return fileName;
+    return fileName.substring(0, fileName.length() - extension.length());
+  }
+
+  /**
+   * False for a compressed file whose plain version, or a version findFile() tries first, is also there.  Listings
+   * which read files by their names without the compression extension use it to read each file once.
+   */
+  public static boolean isPreferredVersion(File file) {
+    if (! isCompressed(file.getName())) return true;
+    File plainFile = new File(file.getParentFile(), stripCompressionExtension(file.getName()));
+    return findFile(plainFile.getPath()).equals(file);
+  }
+
+  /**
+   * The named file if it exists, otherwise its compressed version (fileName.gz or fileName.xz) if that exists,
+   * otherwise the named file.
+   */
+  public static File findFile(String fileName) {
+    File file = new File(fileName);
+    if (file.exists()) return file;
+    for (String extension : COMPRESSED_EXTENSIONS) {
+      File compressedFile = new File(fileName + extension);
+      if (compressedFile.exists()) return compressedFile;
+    }
+    return file;
+  }
+
+  /**
+   * Opens the file, decompressing it if its name ends in .gz or .xz.  Compressed files are decompressed on a
+   * background read-ahead thread (gzip) or by the xz command in a child process (xz, which the JDK cannot decode),
+   * so the caller's thread only parses.
+   */
+  public static InputStream openInputStream(File file) throws IOException {
+    String extension = getCompressionExtension(file.getName());
+    if (extension == null) return new FileInputStream(file);
+    InputStream decompressed;
+    if (extension.equals(".gz")) {
+      decompressed = new GZIPInputStream(new FileInputStream(file), 1 << 16);
+    } else {
+      decompressed = openXzProcess(file);
+    }
+    return new ReadAheadInputStream(decompressed, file.getName());
+  }
+
+  public static BufferedReader openReader(File file) throws IOException {
+    return new BufferedReader(new InputStreamReader(openInputStream(file)));
+  }
+
+  /**
+   * Opens the named file, or its compressed version if only that exists; see findFile() and openInputStream().
+   */
+  public static BufferedReader openReader(String fileName) throws IOException {
+    return openReader(findFile(fileName));
+  }
+
+  private static InputStream openXzProcess(final File file) throws IOException {
+    final Process process;
+    try {
+      process = new ProcessBuilder("xz", "--decompress", "--stdout", file.getPath()).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+    } catch (IOException e) {
+      throw new IOException("Cannot decompress " + file + ": the JDK has no xz decoder and the xz command could not be run", e);
+    }
+    process.getOutputStream().close();
+    return new FilterInputStream(process.getInputStream()) {
+      boolean checkedExit;
+
+      private int checkExit(int numRead) throws IOException {
+        if (numRead >= 0 || checkedExit) return numRead;
+        checkedExit = true;
+        try {
+          int status = process.waitFor();
+          if (status != 0) throw new IOException("xz failed on " + file + " with exit status " + status);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted waiting for xz");
+        }
+        return numRead;
+      }
+
+      public int read() throws IOException {
+        return checkExit(super.read());
+      }
+
+      public int read(byte[] bytes, int offset, int length) throws IOException {
+        return checkExit(super.read(bytes, offset, length));
+      }
+
+      public void close() throws IOException {
+        super.close();
+        process.destroy();
+      }
+    };
+  }
 }
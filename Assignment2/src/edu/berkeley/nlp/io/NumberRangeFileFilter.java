@@ -4,7 +4,8 @@ import java.io.FileFilter;
 import java.io.File;
 
 /**
- * Accepts files based on the (last) number in their filename.  Optionally restricts based on extensions, as well.
+ * Accepts files based on the (last) number in their filename.  Optionally restricts based on extensions, as well;
+ * compressed files count as having the extension of the file they compress.
  *
  * @author Dan Klein
  */
@@ -17,7 +18,8 @@ class NumberRangeFileFilter implements FileFilter {
   public boolean accept(File pathname) {
     if (pathname.isDirectory())
       return recurse;
-    String name = pathname.getName();
+    // compressed files are filtered by their name without the .gz or .xz
+    String name = IOUtils.stripCompressionExtension(pathname.getName());
     if (! name.endsWith(extension))
       return false;
     int lastNumberIndex = getLastNumberIndex(name);
@@ -26,7 +28,10 @@ class NumberRangeFileFilter implements FileFilter {
     int numEndLoc = lastNumberIndex+1;
     int numStartLoc = getLastNonNumberIndex(name, lastNumberIndex)+1;
     int fileNum = Integer.parseInt(name.substring(numStartLoc, numEndLoc));
-    return fileNum >= lowFileNum && fileNum <= highFileNum;
+    if (fileNum < lowFileNum || fileNum > highFileNum)
+      return false;
+    // a file that is there both plain and compressed is only read once
+    return IOUtils.isPreferredVersion(pathname);
   }
 
   private int getLastNonNumberIndex(String name, int lastNumberIndex) {
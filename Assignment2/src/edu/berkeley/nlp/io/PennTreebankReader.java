@@ -5,6 +5,8 @@ import edu.berkeley.nlp.ling.Trees;
 import edu.berkeley.nlp.util.ConcatenationIterator;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
 import java.io.*;
 
 /**
@@ -15,10 +17,14 @@ public class PennTreebankReader {
   static class TreeCollection extends AbstractCollection<Tree<String>> {
 
     final List<File> files;
+    // sizeOffsets[i] is the number of bytes in the files before file i
+    final long[] sizeOffsets;
 
     static class TreeIteratorIterator implements Iterator<Iterator<Tree<String>>> {
       final Iterator<File> fileIterator;
       Iterator<Tree<String>> nextTreeIterator;
+      // labels and words are shared by all the files, so each is only created once
+      Trees.FastPennTreeReader.SymbolTable symbolTable = new Trees.FastPennTreeReader.SymbolTable();
 
       public boolean hasNext() {
         return nextTreeIterator != null;
@@ -37,10 +43,12 @@ public class PennTreebankReader {
       private void advance() {
         nextTreeIterator = null;
         while (nextTreeIterator == null && fileIterator.hasNext()) {
+          File file = fileIterator.next();
           try {
-            File file = fileIterator.next();
-            nextTreeIterator = new Trees.PennTreeReader(new BufferedReader(new FileReader(file)));
+            nextTreeIterator = new Trees.FastPennTreeReader(new InputStreamReader(IOUtils.openInputStream(file)), symbolTable);
           } catch (FileNotFoundException e) {
+          } catch (IOException e) {
+            throw new RuntimeException("Error opening " + file, e);
           }
         }
       }
@@ -55,6 +63,10 @@ public class PennTreebankReader {
       return new ConcatenationIterator<Tree<String>>(new TreeIteratorIterator(files));
     }
 
+    public Spliterator<Tree<String>> spliterator() {
+      return new FileSpliterator(files, sizeOffsets, 0, files.size(), null, new Trees.FastPennTreeReader.SymbolTable());
+    }
+
     public int size() {
       int size = 0;
       Iterator i = iterator();
@@ -65,33 +77,144 @@ public class PennTreebankReader {
       return size;
     }
 
-    private List<File> getFilesUnder(String path, FileFilter fileFilter) {
-      File root = new File(path);
-      List<File> files = new ArrayList<File>();
-      addFilesUnder(root, files, fileFilter);
-      return files;
+    public TreeCollection(String path, int lowFileNum, int highFileNum) {
+      FileFilter fileFilter = new NumberRangeFileFilter(".mrg", lowFileNum, highFileNum, true);
+      List<IOUtils.CorpusFile> corpusFiles = IOUtils.findFilesUnder(path, fileFilter, Runtime.getRuntime().availableProcessors());
+      this.files = new ArrayList<File>(corpusFiles.size());
+      this.sizeOffsets = new long[corpusFiles.size() + 1];
+      for (int i = 0; i < corpusFiles.size(); i++) {
+        files.add(corpusFiles.get(i).getFile());
+        sizeOffsets[i + 1] = sizeOffsets[i] + corpusFiles.get(i).getSize();
+      }
     }
+  }
 
-    private void addFilesUnder(File root, List<File> files, FileFilter fileFilter) {
-      if (! fileFilter.accept(root)) return;
-      if (root.isFile()) {
-        files.add(root);
-        return;
-      }
-      if (root.isDirectory()) {
-        File[] children = root.listFiles();
-        assert children != null;
-        for (int i = 0; i < children.length; i++) {
-          File child = children[i];
-          addFilesUnder(child, files, fileFilter);
-        }
+  /**
+   * Splits by file: each half of a split reads its own files, in order, so a parallel stream over the trees parses
+   * files concurrently while an ordered one still sees them in file order.  Splits fall at the middle byte rather than
+   * the middle file, so sections with a few large files are shared out as evenly as ones with many small files.  The
+   * size estimate is in files.
+   */
+  static class FileSpliterator implements Spliterator<Tree<String>> {
+    List<File> files;
+    long[] sizeOffsets;
+    int nextFile;
+    int endFile;
+    Iterator<Tree<String>> currentTrees;
+    // not thread-safe: shared only with currentTrees, which reads into it
+    Trees.FastPennTreeReader.SymbolTable symbolTable;
+
+    public boolean tryAdvance(Consumer<? super Tree<String>> action) {
+      while (currentTrees == null || !currentTrees.hasNext()) {
+        if (nextFile >= endFile) return false;
+        currentTrees = openFile(files.get(nextFile++), symbolTable);
       }
+      action.accept(currentTrees.next());
+      return true;
     }
 
-    public TreeCollection(String path, int lowFileNum, int highFileNum) {
-      FileFilter fileFilter = new NumberRangeFileFilter(".mrg", lowFileNum, highFileNum, true);
-      this.files = getFilesUnder(path, fileFilter);
+    public Spliterator<Tree<String>> trySplit() {
+      int remainingFiles = endFile - nextFile;
+      if (remainingFiles < 2) return null;
+      int splitFile = getMiddleFile();
+      // the prefix also takes the rest of a partly read file, which comes before everything left here, and the symbol
+      // table that file's reader interns into, since the two halves may run on different threads
+      FileSpliterator prefix = new FileSpliterator(files, sizeOffsets, nextFile, splitFile, currentTrees, symbolTable);
+      nextFile = splitFile;
+      currentTrees = null;
+      symbolTable = new Trees.FastPennTreeReader.SymbolTable();
+      return prefix;
+    }
+
+    /**
+     * The first file starting at or past the middle byte of the remaining files, leaving at least one file on each side.
+     */
+    private int getMiddleFile() {
+      long middleOffset = (sizeOffsets[nextFile] + sizeOffsets[endFile]) / 2;
+      int splitFile = Arrays.binarySearch(sizeOffsets, nextFile, endFile, middleOffset);
+      if (splitFile < 0) splitFile = -splitFile - 1;
+      return Math.max(nextFile + 1, Math.min(endFile - 1, splitFile));
+    }
+
+    public long estimateSize() {
+      return endFile - nextFile + (currentTrees != null && currentTrees.hasNext() ? 1 : 0);
+    }
+
+    public int characteristics() {
+      return ORDERED | NONNULL | IMMUTABLE;
     }
+
+    FileSpliterator(List<File> files, long[] sizeOffsets, int nextFile, int endFile, Iterator<Tree<String>> currentTrees,
+                    Trees.FastPennTreeReader.SymbolTable symbolTable) {
+      this.files = files;
+      this.sizeOffsets = sizeOffsets;
+      this.nextFile = nextFile;
+      this.endFile = endFile;
+      this.currentTrees = currentTrees;
+      this.symbolTable = symbolTable;
+    }
+  }
+
+  static Iterator<Tree<String>> openFile(File file, Trees.FastPennTreeReader.SymbolTable symbolTable) {
+    try {
+      return new Trees.FastPennTreeReader(new InputStreamReader(IOUtils.openInputStream(file)), symbolTable);
+    } catch (FileNotFoundException e) {
+      return Collections.<Tree<String>>emptyList().iterator();
+    } catch (IOException e) {
+      throw new RuntimeException("Error opening " + file, e);
+    }
+  }
+
+  /**
+   * Reads the trees of every file into a list in file order, parsing the files concurrently on numThreads threads.
+   */
+  public static List<Tree<String>> readTreesInParallel(String path, int lowFileNum, int highFileNum, int numThreads) {
+    List<File> files = new TreeCollection(path, lowFileNum, highFileNum).files;
+    // symbol tables are not thread-safe, so each thread keeps one for all the files it reads
+    final ThreadLocal<Trees.FastPennTreeReader.SymbolTable> symbolTables = new ThreadLocal<Trees.FastPennTreeReader.SymbolTable>() {
+      protected Trees.FastPennTreeReader.SymbolTable initialValue() {
+        return new Trees.FastPennTreeReader.SymbolTable();
+      }
+    };
+    ExecutorService exec = Executors.newFixedThreadPool(Math.max(1, numThreads));
+    List<Future<List<Tree<String>>>> futures = new ArrayList<Future<List<Tree<String>>>>();
+    try {
+      for (final File file : files) {
+        futures.add(exec.submit(new Callable<List<Tree<String>>>() {
+          public List<Tree<String>> call() {
+            List<Tree<String>> trees = new ArrayList<Tree<String>>();
+            Iterator<Tree<String>> treeIterator = openFile(file, symbolTables.get());
+            while (treeIterator.hasNext()) {
+              trees.add(treeIterator.next());
+            }
+            return trees;
+          }
+        }));
+      }
+      List<Tree<String>> trees = new ArrayList<Tree<String>>();
+      for (Future<List<Tree<String>>> future : futures) {
+        trees.addAll(future.get());
+      }
+      return trees;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while reading trees under " + path, e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Error reading trees under " + path, e.getCause());
+    } finally {
+      exec.shutdownNow();
+    }
+  }
+
+  public static List<Tree<String>> readTreesInParallel(String path, int lowFileNum, int highFileNum) {
+    return readTreesInParallel(path, lowFileNum, highFileNum, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * The trees of the given files as an ordered spliterator which splits by file, for use with parallel streams.
+   */
+  public static Spliterator<Tree<String>> treeSpliterator(String path, int lowFileNum, int highFileNum) {
+    return new TreeCollection(path, lowFileNum, highFileNum).spliterator();
   }
 
   public static Collection<Tree<String>> readTrees(String path) {
@@ -102,12 +225,16 @@ public class PennTreebankReader {
     return new TreeCollection(path, lowFileNum, highFileNumber);
   }
 
-  public static void main(String[] args) {
+  public static void main(String[] args) throws IOException {
     Collection<Tree<String>> trees = readTrees(args[0]);
+    Trees.TreeTransformer<String> treeTransformer = new Trees.StandardTreeNormalizer(true);
+    Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
     for (Tree<String> tree : trees) {
-      tree = (new Trees.StandardTreeNormalizer()).transformTree(tree);
-      System.out.println(Trees.PennTreeRenderer.render(tree));
+      tree = treeTransformer.transformTree(tree);
+      Trees.PennTreeRenderer.render(tree, out);
+      out.write('\n');
     }
+    out.flush();
   }
 
 }
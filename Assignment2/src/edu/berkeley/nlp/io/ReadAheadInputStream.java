@@ -0,0 +1,147 @@
+package edu.berkeley.nlp.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads another stream on a background thread, a fixed number of chunks ahead of the consumer.  Chunks cycle between
+ * a queue of free buffers and a queue of filled ones, so at most numChunks * chunkSize bytes are buffered and nothing
+ * is allocated after construction.  Wrapped around a decompressing stream, this moves decompression off the thread
+ * that parses the text.
+ * <p/>
+ * Unlike most streams, available() blocks until the next chunk has been read, and only returns 0 at the end of the
+ * stream, so loops on BufferedReader.ready() see every line.  A read error on the background thread is rethrown by
+ * every call from the point the consumer reaches it.
+ */
+public class ReadAheadInputStream extends InputStream {
+  static class Chunk {
+    byte[] bytes;
+    int length;
+    IOException error;
+
+    Chunk(int chunkSize) {
+      bytes = new byte[chunkSize];
+    }
+  }
+
+  final InputStream source;
+  final BlockingQueue<Chunk> freeChunks;
+  final BlockingQueue<Chunk> filledChunks;
+  final Thread readerThread;
+  Chunk current;
+  int position;
+  boolean endOfStream;
+  // rethrown by every later call too, since callers like InputStreamReader swallow errors from available()
+  IOException error;
+  volatile boolean closed;
+
+  public ReadAheadInputStream(InputStream source, String name) {
+    this(source, name, 1 << 16, 8);
+  }
+
+  public ReadAheadInputStream(InputStream source, String name, int chunkSize, int numChunks) {
+    if (numChunks < 2) throw new IllegalArgumentException("Need at least two chunks, got " + numChunks);
+    this.source = source;
+    freeChunks = new ArrayBlockingQueue<Chunk>(numChunks);
+    filledChunks = new ArrayBlockingQueue<Chunk>(numChunks);
+    for (int i = 0; i < numChunks; i++) {
+      freeChunks.add(new Chunk(chunkSize));
+    }
+    readerThread = new Thread(new Runnable() {
+      public void run() {
+        readAhead();
+      }
+    }, "read-ahead " + name);
+    readerThread.setDaemon(true);
+    readerThread.start();
+  }
+
+  private void readAhead() {
+    try {
+      while (!closed) {
+        Chunk chunk = freeChunks.take();
+        chunk.length = 0;
+        chunk.error = null;
+        try {
+          while (chunk.length < chunk.bytes.length) {
+            int numRead = source.read(chunk.bytes, chunk.length, chunk.bytes.length - chunk.length);
+            if (numRead < 0) break;
+            chunk.length += numRead;
+          }
+        } catch (IOException e) {
+          chunk.error = e;
+        }
+        boolean last = (chunk.length < chunk.bytes.length);
+        filledChunks.put(chunk);
+        if (last) break;
+      }
+    } catch (InterruptedException e) {
+      // closed by the consumer
+    } finally {
+      try {
+        source.close();
+      } catch (IOException e) {
+        // nothing is left to read from it
+      }
+    }
+  }
+
+  /**
+   * Makes sure the current chunk has unread bytes, waiting for the next one if needed.  Returns false at the end of the
+   * stream.
+   */
+  private boolean fillCurrent() throws IOException {
+    if (closed) throw new IOException("Stream closed");
+    if (error != null) throw error;
+    while (!endOfStream && (current == null || position == current.length)) {
+      boolean last = false;
+      if (current != null) {
+        last = (current.length < current.bytes.length);
+        error = current.error;
+        freeChunks.add(current);
+        current = null;
+        if (error != null) throw error;
+      }
+      if (last) {
+        endOfStream = true;
+        break;
+      }
+      try {
+        current = filledChunks.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for read-ahead");
+      }
+      position = 0;
+    }
+    return !endOfStream;
+  }
+
+  public int read() throws IOException {
+    if (!fillCurrent()) return -1;
+    return current.bytes[position++] & 0xff;
+  }
+
+  public int read(byte[] bytes, int offset, int length) throws IOException {
+    if (length == 0) return 0;
+    if (!fillCurrent()) return -1;
+    int numRead = Math.min(length, current.length - position);
+    System.arraycopy(current.bytes, position, bytes, offset, numRead);
+    position += numRead;
+    return numRead;
+  }
+
+  public int available() throws IOException {
+    if (!fillCurrent()) return 0;
+    return current.length - position;
+  }
+
+  public void close() {
+    if (closed) return;
+    closed = true;
+    readerThread.interrupt();
+  }
+}
@@ -6,6 +6,7 @@ import java.io.IOException;
 import java.io.PushbackReader;
 import java.io.Reader;
 import java.io.StringReader;
+import java.io.Writer;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -21,7 +22,106 @@ public class Trees {
     Tree<E> transformTree(Tree<E> tree);
   }
 
-  public static class FunctionNodeStripper implements TreeTransformer<String> {
+  /**
+   * A transformer which can be applied one node at a time, bottom-up: what it does at a node depends only on the node
+   * and its already transformed children.  A pipeline runs consecutive fusable transformers in a single pass.
+   */
+  public interface FusableTreeTransformer<E> extends TreeTransformer<E> {
+    /**
+     * Transforms one node whose children have already been transformed.  The node is owned by the caller's pass, so it
+     * may be relabeled, or given new children, in place.  Returns the node to use in its place, or null to delete it.
+     */
+    Tree<E> transformNode(Tree<E> node);
+  }
+
+  /**
+   * Applies a sequence of transformers to a tree.  Runs of consecutive fusable transformers are fused into one
+   * bottom-up pass, which builds each node once and applies every transformer of the run to it in turn, instead of
+   * copying the whole tree once per transformer.  Deleting all the children of a node deletes the node.
+   * <p/>
+   * In place, fused passes reuse the input tree's nodes, and their children lists where no child changed; use it only
+   * for trees the caller owns.  Other transformers always build their own copies.
+   */
+  public static class TreeTransformerPipeline<E> implements TreeTransformer<E> {
+    List<TreeTransformer<E>> passes = new ArrayList<TreeTransformer<E>>();
+    boolean inPlace;
+
+    static class FusedPass<E> implements TreeTransformer<E> {
+      List<FusableTreeTransformer<E>> transformers = new ArrayList<FusableTreeTransformer<E>>();
+      boolean inPlace;
+
+      public Tree<E> transformTree(Tree<E> tree) {
+        List<Tree<E>> children = tree.getChildren();
+        Tree<E> node;
+        if (children.isEmpty()) {
+          node = (inPlace ? tree : new Tree<E>(tree.getLabel()));
+        } else {
+          List<Tree<E>> transformedChildren = (inPlace ? null : new ArrayList<Tree<E>>(children.size()));
+          for (int i = 0; i < children.size(); i++) {
+            Tree<E> child = children.get(i);
+            Tree<E> transformedChild = transformTree(child);
+            if (transformedChildren == null && transformedChild != child)
+              transformedChildren = new ArrayList<Tree<E>>(children.subList(0, i));
+            if (transformedChildren != null && transformedChild != null)
+              transformedChildren.add(transformedChild);
+          }
+          if (transformedChildren != null && transformedChildren.isEmpty())
+            return null;
+          if (! inPlace) {
+            node = new Tree<E>(tree.getLabel(), transformedChildren);
+          } else {
+            node = tree;
+            if (transformedChildren != null) node.setChildren(transformedChildren);
+          }
+        }
+        for (FusableTreeTransformer<E> transformer : transformers) {
+          node = transformer.transformNode(node);
+          if (node == null) return null;
+        }
+        return node;
+      }
+    }
+
+    /**
+     * Appends a transformer, fusing it with the previous one if both are fusable.  Returns this pipeline.
+     */
+    @SuppressWarnings("unchecked")
+    public TreeTransformerPipeline<E> add(TreeTransformer<E> transformer) {
+      if (! (transformer instanceof FusableTreeTransformer)) {
+        passes.add(transformer);
+        return this;
+      }
+      TreeTransformer<E> lastPass = (passes.isEmpty() ? null : passes.get(passes.size() - 1));
+      FusedPass<E> fusedPass;
+      if (lastPass instanceof FusedPass) {
+        fusedPass = (FusedPass<E>) lastPass;
+      } else {
+        fusedPass = new FusedPass<E>();
+        fusedPass.inPlace = inPlace;
+        passes.add(fusedPass);
+      }
+      fusedPass.transformers.add((FusableTreeTransformer<E>) transformer);
+      return this;
+    }
+
+    public Tree<E> transformTree(Tree<E> tree) {
+      for (TreeTransformer<E> pass : passes) {
+        if (tree == null) return null;
+        tree = pass.transformTree(tree);
+      }
+      return tree;
+    }
+
+    public TreeTransformerPipeline() {
+      this(false);
+    }
+
+    public TreeTransformerPipeline(boolean inPlace) {
+      this.inPlace = inPlace;
+    }
+  }
+
+  public static class FunctionNodeStripper implements FusableTreeTransformer<String> {
 	  
 	public static String transformLabel(Tree<String> tree) {
 		String transformedLabel = tree.getLabel();
@@ -46,9 +146,14 @@ public class Trees {
       }
       return new Tree<String>(transformedLabel, transformedChildren);
     }
+
+    public Tree<String> transformNode(Tree<String> node) {
+      node.setLabel(transformLabel(node));
+      return node;
+    }
   }
 
-  public static class EmptyNodeStripper implements TreeTransformer<String> {
+  public static class EmptyNodeStripper implements FusableTreeTransformer<String> {
     public Tree<String> transformTree(Tree<String> tree) {
       String label = tree.getLabel();
       if (label.equals("-NONE-")) {
@@ -68,9 +173,13 @@ public class Trees {
         return null;
       return new Tree<String>(label, transformedChildren);
     }
+
+    public Tree<String> transformNode(Tree<String> node) {
+      return (node.getLabel().equals("-NONE-") ? null : node);
+    }
   }
 
-  public static class XOverXRemover<E> implements TreeTransformer<E> {
+  public static class XOverXRemover<E> implements FusableTreeTransformer<E> {
     public Tree<E> transformTree(Tree<E> tree) {
       E label = tree.getLabel();
       List<Tree<E>> children = tree.getChildren();
@@ -83,9 +192,18 @@ public class Trees {
       }
       return new Tree<E>(label, transformedChildren);
     }
+
+    public Tree<E> transformNode(Tree<E> node) {
+      List<Tree<E>> children = node.getChildren();
+      while (children.size() == 1 && ! children.get(0).isLeaf() && node.getLabel().equals(children.get(0).getLabel())) {
+        children = children.get(0).getChildren();
+      }
+      if (children != node.getChildren()) node.setChildren(children);
+      return node;
+    }
   }
 
-  public static class PunctuationNodeStripper implements TreeTransformer<String> {
+  public static class PunctuationNodeStripper implements FusableTreeTransformer<String> {
     private final static Pattern punctuationPattern = Pattern.compile("\\W+");
   		public Tree<String> transformTree(Tree<String> tree) {
       String label = tree.getLabel();
@@ -107,18 +225,26 @@ public class Trees {
         return null;
       return new Tree<String>(label, transformedChildren);
     }
+
+    public Tree<String> transformNode(Tree<String> node) {
+      return (punctuationPattern.matcher(node.getLabel()).matches() ? null : node);
+    }
   }
   
-  public static class StandardTreeNormalizer implements TreeTransformer<String> {
-    final EmptyNodeStripper emptyNodeStripper = new EmptyNodeStripper();
-    final XOverXRemover<String> xOverXRemover = new XOverXRemover<String>();
-    final FunctionNodeStripper functionNodeStripper = new FunctionNodeStripper();
+  /**
+   * Strips function tags, then empty nodes, then X-over-X unaries, fused into a single pass over the tree.  In place,
+   * the input tree's nodes are reused.
+   */
+  public static class StandardTreeNormalizer extends TreeTransformerPipeline<String> {
+    public StandardTreeNormalizer() {
+      this(false);
+    }
 
-    public Tree<String> transformTree(Tree<String> tree) {
-      tree = functionNodeStripper.transformTree(tree);
-      tree = emptyNodeStripper.transformTree(tree);
-      tree = xOverXRemover.transformTree(tree);
-      return tree;
+    public StandardTreeNormalizer(boolean inPlace) {
+      super(inPlace);
+      add(new FunctionNodeStripper());
+      add(new EmptyNodeStripper());
+      add(new XOverXRemover<String>());
     }
   }
 
@@ -281,12 +407,227 @@ public class Trees {
     }
   }
 
+  /**
+   * Tree reader for large bracketed files.  Reads the input through a large char buffer and tokenizes straight out of
+   * it; trees are built with an explicit stack rather than recursive calls, and labels and words are resolved through a
+   * SymbolTable, so a String is only created (and interned) the first time a symbol is seen.  Produces the same trees
+   * as PennTreeReader.
+   */
+  public static class FastPennTreeReader implements Iterator<Tree<String>> {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Maps token characters to canonical (interned) Strings without building a String per token.  Not thread-safe;
+     * may be shared by the readers of several files read one after another.
+     */
+    public static class SymbolTable {
+      String[] symbols = new String[1024];
+      int[] hashes = new int[1024];
+      int size = 0;
+
+      public String get(char[] chars, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+          hash = 31 * hash + chars[i];
+        }
+        int mask = symbols.length - 1;
+        int slot = hash & mask;
+        while (symbols[slot] != null) {
+          if (hashes[slot] == hash && matches(symbols[slot], chars, start, end))
+            return symbols[slot];
+          slot = (slot + 1) & mask;
+        }
+        String symbol = new String(chars, start, end - start).intern();
+        symbols[slot] = symbol;
+        hashes[slot] = hash;
+        size++;
+        if (2 * size > symbols.length) grow();
+        return symbol;
+      }
+
+      private static boolean matches(String symbol, char[] chars, int start, int end) {
+        if (symbol.length() != end - start) return false;
+        for (int i = start; i < end; i++) {
+          if (symbol.charAt(i - start) != chars[i]) return false;
+        }
+        return true;
+      }
+
+      private void grow() {
+        String[] oldSymbols = symbols;
+        int[] oldHashes = hashes;
+        symbols = new String[2 * oldSymbols.length];
+        hashes = new int[2 * oldSymbols.length];
+        int mask = symbols.length - 1;
+        for (int i = 0; i < oldSymbols.length; i++) {
+          if (oldSymbols[i] == null) continue;
+          int slot = oldHashes[i] & mask;
+          while (symbols[slot] != null) {
+            slot = (slot + 1) & mask;
+          }
+          symbols[slot] = oldSymbols[i];
+          hashes[slot] = oldHashes[i];
+        }
+      }
+    }
+
+    static class Frame {
+      String label;
+      List<Tree<String>> children = new ArrayList<Tree<String>>();
+      boolean leafChild;
+    }
+
+    Reader in;
+    SymbolTable symbolTable;
+    char[] buffer = new char[BUFFER_SIZE];
+    int position = 0;
+    int limit = 0;
+    boolean endOfInput = false;
+    Tree<String> nextTree;
+
+    public boolean hasNext() {
+      return (nextTree != null);
+    }
+
+    public Tree<String> next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      Tree<String> tree = nextTree;
+      nextTree = readRootTree();
+      return tree;
+    }
+
+    /**
+     * Buffers at least one character past the current position unless the input is exhausted, keeping the characters
+     * from tokenStart on.  Returns the (possibly moved) tokenStart.
+     */
+    private int fill(int tokenStart) throws IOException {
+      while (position >= limit && !endOfInput) {
+        int keep = limit - tokenStart;
+        if (keep == buffer.length) buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+        System.arraycopy(buffer, tokenStart, buffer, 0, keep);
+        position -= tokenStart;
+        limit = keep;
+        tokenStart = 0;
+        int read = in.read(buffer, limit, buffer.length - limit);
+        if (read < 0) endOfInput = true;
+        else limit += read;
+      }
+      return tokenStart;
+    }
+
+    /**
+     * Skips whitespace and returns the next character without consuming it, or -1 at the end of input.
+     */
+    private int peekNonWhiteSpace() throws IOException {
+      while (true) {
+        if (position >= limit) {
+          fill(position);
+          if (position >= limit) return -1;
+        }
+        char ch = buffer[position];
+        if (ch != ' ' && ch != '\t' && ch != '\f' && ch != '\r' && ch != '\n') return ch;
+        position++;
+      }
+    }
+
+    private String readText() throws IOException {
+      int tokenStart = position;
+      while (true) {
+        if (position >= limit) {
+          tokenStart = fill(tokenStart);
+          if (position >= limit) break;
+        }
+        char ch = buffer[position];
+        if (ch == ' ' || ch == '\t' || ch == '\f' || ch == '\r' || ch == '\n' || ch == '(' || ch == ')') break;
+        position++;
+      }
+      return symbolTable.get(buffer, tokenStart, position);
+    }
+
+    private Tree<String> readRootTree() {
+      try {
+        if (peekNonWhiteSpace() != '(') {
+          // no more trees: release the underlying file now rather than when it is garbage collected
+          in.close();
+          return null;
+        }
+        List<Frame> stack = new ArrayList<Frame>();
+        while (true) {
+          int ch = peekNonWhiteSpace();
+          if (ch == '(') {
+            position++;
+            if (!stack.isEmpty() && stack.get(stack.size() - 1).leafChild) throw new RuntimeException("Format error reading tree.");
+            Frame frame = new Frame();
+            peekNonWhiteSpace();
+            frame.label = readText();
+            if (frame.label.length() == 0 && stack.isEmpty()) frame.label = PennTreeReader.ROOT_LABEL;
+            stack.add(frame);
+          } else if (ch == ')') {
+            position++;
+            if (stack.isEmpty()) throw new RuntimeException("Format error reading tree.");
+            Frame frame = stack.remove(stack.size() - 1);
+            List<Tree<String>> children = frame.children;
+            if (children.isEmpty()) children = Collections.singletonList(new Tree<String>(""));
+            else if (frame.leafChild) children = Collections.singletonList(children.get(0));
+            Tree<String> tree = new Tree<String>(frame.label, children);
+            if (stack.isEmpty()) return tree;
+            stack.get(stack.size() - 1).children.add(tree);
+          } else if (ch < 0) {
+            throw new RuntimeException("Format error reading tree: unexpected end of input.");
+          } else {
+            if (stack.isEmpty()) throw new RuntimeException("Format error reading tree with character: (" + (char) ch + ")");
+            Frame frame = stack.get(stack.size() - 1);
+            if (!frame.children.isEmpty()) throw new RuntimeException("Format error reading tree.");
+            frame.children.add(new Tree<String>(readText()));
+            frame.leafChild = true;
+          }
+        }
+      } catch (IOException e) {
+        throw new RuntimeException("Error reading tree.", e);
+      }
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    public FastPennTreeReader(Reader in) {
+      this(in, new SymbolTable());
+    }
+
+    public FastPennTreeReader(Reader in, SymbolTable symbolTable) {
+      this.in = in;
+      this.symbolTable = symbolTable;
+      nextTree = readRootTree();
+    }
+  }
+
   /**
    * Renderer for pretty-printing trees according to the Penn Treebank indenting
    * guidelines (mutliline).  Adapted from code originally written by Dan Klein
    * and modified by Chris Manning.
    */
   public static class PennTreeRenderer {
+    // indentation is appended as a range of this array rather than one "  " at a time
+    private static final char[] SPACES = new char[128];
+    static {
+      Arrays.fill(SPACES, ' ');
+    }
+
+    /**
+     * Per-thread buffers reused from tree to tree: a tree is formatted into the builder, then copied to the output in
+     * one write, which is much cheaper than writing it piece by piece.
+     */
+    static class RenderBuffer {
+      StringBuilder sb = new StringBuilder(1024);
+      char[] chars = new char[1024];
+    }
+
+    private static final ThreadLocal<RenderBuffer> renderBuffers = new ThreadLocal<RenderBuffer>() {
+      protected RenderBuffer initialValue() {
+        return new RenderBuffer();
+      }
+    };
 
     /**
      * Print the tree as done in Penn Treebank merged files. The formatting
@@ -305,6 +646,51 @@ public class Trees {
       return sb.toString();
     }
 
+    /**
+     * Writes the tree to the output exactly as render(tree) formats it, newline included, without building a String
+     * for it.
+     */
+    public static <L> void render(Tree<L> tree, Appendable out) throws IOException {
+      if (out instanceof StringBuilder) {
+        renderTree(tree, 0, false, false, false, true, (StringBuilder) out);
+        ((StringBuilder) out).append('\n');
+        return;
+      }
+      RenderBuffer buffer = renderBuffers.get();
+      buffer.sb.setLength(0);
+      renderTree(tree, 0, false, false, false, true, buffer.sb);
+      buffer.sb.append('\n');
+      write(buffer, out);
+    }
+
+    /**
+     * Writes the tree to the output on a single line, bracketed as by Tree.toString(), followed by a newline.  The
+     * tree readers read this format as well as the indented one.
+     */
+    public static <L> void renderSingleLine(Tree<L> tree, Appendable out) throws IOException {
+      if (out instanceof StringBuilder) {
+        tree.toStringBuilder((StringBuilder) out);
+        ((StringBuilder) out).append('\n');
+        return;
+      }
+      RenderBuffer buffer = renderBuffers.get();
+      buffer.sb.setLength(0);
+      tree.toStringBuilder(buffer.sb);
+      buffer.sb.append('\n');
+      write(buffer, out);
+    }
+
+    private static void write(RenderBuffer buffer, Appendable out) throws IOException {
+      if (! (out instanceof Writer)) {
+        out.append(buffer.sb);
+        return;
+      }
+      int length = buffer.sb.length();
+      if (buffer.chars.length < length) buffer.chars = new char[Math.max(length, 2 * buffer.chars.length)];
+      buffer.sb.getChars(0, length, buffer.chars, 0);
+      ((Writer) out).write(buffer.chars, 0, length);
+    }
+
     /**
      * Display a node, implementing Penn Treebank style layout
      */
@@ -325,8 +711,8 @@ public class Trees {
         if (!topLevel) {
           sb.append('\n');
         }
-        for (int i = 0; i < indent; i++) {
-          sb.append("  ");
+        for (int numSpaces = 2 * indent; numSpaces > 0; numSpaces -= SPACES.length) {
+          sb.append(SPACES, 0, Math.min(numSpaces, SPACES.length));
         }
       }
       if (tree.isLeaf() || tree.isPreTerminal()) {
@@ -376,53 +762,124 @@ public class Trees {
   }
 
   /**
-   * Splices out all nodes which match the provided filter.
+   * Splices out all nodes which match the provided filter.  Builds a new tree; the input is left unchanged.
    *
    * @param tree
    * @param filter
    * @return
    */
   public static <L> Tree<L> spliceNodes(Tree<L> tree, Filter<L> filter) {
-    List<Tree<L>> rootList = spliceNodesHelper(tree, filter);
+    return getUniqueRoot(rewriteNodes(tree, filter, false, false));
+  }
+
+  /**
+   * Like spliceNodes(), but rewrites the tree itself: surviving nodes are reused, and only the children lists of nodes
+   * which lost a child are replaced.  Use it only for trees the caller owns.
+   */
+  public static <L> Tree<L> spliceNodesInPlace(Tree<L> tree, Filter<L> filter) {
+    return getUniqueRoot(rewriteNodes(tree, filter, false, true));
+  }
+
+  private static <L> Tree<L> getUniqueRoot(List<Tree<L>> rootList) {
     if (rootList.size() > 1) throw new IllegalArgumentException("spliceNodes: no unique root after splicing");
     if (rootList.size() < 1) return null;
     return rootList.get(0);
   }
 
-  private static <L> List<Tree<L>> spliceNodesHelper(Tree<L> tree, Filter<L> filter) {
-    List<Tree<L>> splicedChildren = new ArrayList<Tree<L>>();
-    for (Tree<L> child : tree.getChildren()) {
-      List<Tree<L>> splicedChildList = spliceNodesHelper(child, filter);
-      splicedChildren.addAll(splicedChildList);
-    }
-    if (filter.accept(tree.getLabel()))
-      return splicedChildren;
-    return Collections.singletonList(new Tree<L>(tree.getLabel(), splicedChildren));
-  }
-
   /**
-   * Prunes out all nodes which match the provided filter (and nodes which dominate only pruned nodes).
+   * Prunes out all nodes which match the provided filter (and nodes which dominate only pruned nodes).  Builds a new
+   * tree; the input is left unchanged.
    *
    * @param tree
    * @param filter
    * @return
    */
   public static <L> Tree<L> pruneNodes(Tree<L> tree, Filter<L> filter) {
-    return pruneNodesHelper(tree, filter);
+    List<Tree<L>> rootList = rewriteNodes(tree, filter, true, false);
+    return (rootList.isEmpty() ? null : rootList.get(0));
+  }
+
+  /**
+   * Like pruneNodes(), but rewrites the tree itself, replacing only the children lists of nodes which lost a child.
+   * Use it only for trees the caller owns.
+   */
+  public static <L> Tree<L> pruneNodesInPlace(Tree<L> tree, Filter<L> filter) {
+    List<Tree<L>> rootList = rewriteNodes(tree, filter, true, true);
+    return (rootList.isEmpty() ? null : rootList.get(0));
+  }
+
+  /**
+   * Splices or prunes the nodes matching the filter, in one iterative postorder pass, so deep trees cannot overflow
+   * the stack.  Finished subtrees are pushed on an output stack; when a node is finished, the outputs of its children
+   * are the top of that stack.  A spliced node simply leaves them there for its parent, so no intermediate lists are
+   * built, and a pruned node is never descended into.  Returns the outputs of the root: one tree, none, or (when
+   * splicing the root) several.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static <L> List<Tree<L>> rewriteNodes(Tree<L> tree, Filter<L> filter, boolean prune, boolean inPlace) {
+    if (prune && filter.accept(tree.getLabel())) return new ArrayList<Tree<L>>();
+    Tree<L>[] nodeStack = new Tree[16];
+    int[] nextChildStack = new int[16];
+    int[] outputStartStack = new int[16];
+    Tree<L>[] outputs = new Tree[16];
+    int depth = 0;
+    int numOutputs = 0;
+    nodeStack[0] = tree;
+    while (depth >= 0) {
+      Tree<L> node = nodeStack[depth];
+      List<Tree<L>> children = node.getChildren();
+      int nextChild = nextChildStack[depth];
+      if (nextChild == 0) outputStartStack[depth] = numOutputs;
+      if (nextChild < children.size()) {
+        nextChildStack[depth] = nextChild + 1;
+        Tree<L> child = children.get(nextChild);
+        if (prune && filter.accept(child.getLabel())) continue;
+        if (++depth == nodeStack.length) {
+          nodeStack = Arrays.copyOf(nodeStack, 2 * depth);
+          nextChildStack = Arrays.copyOf(nextChildStack, 2 * depth);
+          outputStartStack = Arrays.copyOf(outputStartStack, 2 * depth);
+        }
+        nodeStack[depth] = child;
+        nextChildStack[depth] = 0;
+        continue;
+      }
+      int outputStart = outputStartStack[depth];
+      nodeStack[depth--] = null;
+      if (! prune && filter.accept(node.getLabel())) continue;
+      int numChildOutputs = numOutputs - outputStart;
+      if (prune && numChildOutputs == 0 && ! node.isLeaf()) continue;
+      Tree<L> output;
+      if (! inPlace) {
+        output = (node.isLeaf() ? new Tree<L>(node.getLabel()) : new Tree<L>(node.getLabel(), toList(outputs, outputStart, numOutputs)));
+      } else {
+        output = node;
+        if (! isSameNodes(children, outputs, outputStart, numOutputs)) node.setChildren(toList(outputs, outputStart, numOutputs));
+      }
+      numOutputs = outputStart;
+      if (numOutputs == outputs.length) outputs = Arrays.copyOf(outputs, 2 * numOutputs);
+      outputs[numOutputs++] = output;
+    }
+    return toList(outputs, 0, numOutputs);
+  }
+
+  private static <L> List<Tree<L>> toList(Tree<L>[] trees, int start, int end) {
+    List<Tree<L>> list = new ArrayList<Tree<L>>(end - start);
+    for (int i = start; i < end; i++) {
+      list.add(trees[i]);
+      trees[i] = null;
+    }
+    return list;
   }
 
-  private static <L> Tree<L> pruneNodesHelper(Tree<L> tree, Filter<L> filter) {
-    if (filter.accept(tree.getLabel()))
-      return null;
-    List<Tree<L>> prunedChildren = new ArrayList<Tree<L>>();
-    for (Tree<L> child : tree.getChildren()) {
-      Tree<L> prunedChild = pruneNodesHelper(child, filter);
-      if (prunedChild != null)
-      prunedChildren.add(prunedChild);
-    }
-    if (prunedChildren.isEmpty() && ! tree.isLeaf())
-      return null;
-    return new Tree<L>(tree.getLabel(), prunedChildren);
+  /**
+   * Whether the children are exactly the given nodes, by identity; Tree does not override equals().
+   */
+  private static <L> boolean isSameNodes(List<Tree<L>> children, Tree<L>[] trees, int start, int end) {
+    if (children.size() != end - start) return false;
+    for (int i = start; i < end; i++) {
+      if (children.get(i - start) != trees[i]) return false;
+    }
+    return true;
   }
 
 }
@@ -0,0 +1,84 @@
+package edu.berkeley.nlp.assignments;
+
+import edu.berkeley.nlp.util.Counter;
+import edu.berkeley.nlp.util.CounterMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the counter operations every model in the assignments is built from, over 10k keys drawn from 2k distinct
+ * strings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CounterBenchmark {
+
+  @Param("1")
+  long seed;
+
+  String[] keys;
+  Counter<String> filledCounter;
+  CounterMap<String, String> filledCounterMap;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    Random random = new Random(seed);
+    keys = new String[10000];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = "key" + random.nextInt(2000);
+    }
+    filledCounter = new Counter<String>(Arrays.asList(keys));
+    filledCounterMap = new CounterMap<String, String>();
+    for (int i = 1; i < keys.length; i++) {
+      filledCounterMap.incrementCount(keys[i - 1], keys[i], 1.0);
+    }
+  }
+
+  @Benchmark
+  public Counter<String> counterIncrementCount() {
+    Counter<String> counter = new Counter<String>();
+    for (String key : keys) {
+      counter.incrementCount(key, 1.0);
+    }
+    return counter;
+  }
+
+  @Benchmark
+  public double counterGetCount() {
+    double total = 0.0;
+    for (String key : keys) {
+      total += filledCounter.getCount(key);
+    }
+    return total;
+  }
+
+  @Benchmark
+  public String counterArgMax() {
+    return filledCounter.argMax();
+  }
+
+  @Benchmark
+  public CounterMap<String, String> counterMapIncrementCount() {
+    CounterMap<String, String> counterMap = new CounterMap<String, String>();
+    for (int i = 1; i < keys.length; i++) {
+      counterMap.incrementCount(keys[i - 1], keys[i], 1.0);
+    }
+    return counterMap;
+  }
+
+  @Benchmark
+  public double counterMapGetCount() {
+    double total = 0.0;
+    for (int i = 1; i < keys.length; i++) {
+      total += filledCounterMap.getCount(keys[i - 1], keys[i]);
+    }
+    return total;
+  }
+}
@@ -0,0 +1,72 @@
+package edu.berkeley.nlp.assignments;
+
+import edu.berkeley.nlp.classify.FeatureExtractor;
+import edu.berkeley.nlp.classify.LabeledInstance;
+import edu.berkeley.nlp.classify.ProbabilisticClassifier;
+import edu.berkeley.nlp.ling.Tree;
+import edu.berkeley.nlp.util.Counter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times training a maximum entropy word-to-tag classifier on the tagged words of synthetic trees.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MaxEntBenchmark {
+
+  @Param({"1", "10"})
+  int iterations;
+
+  @Param("201")
+  int numTrees;
+
+  @Param("1")
+  long seed;
+
+  List<LabeledInstance<String, String>> trainingData;
+  FeatureExtractor<String, String> featureExtractor = new FeatureExtractor<String, String>() {
+    public Counter<String> extractFeatures(String word) {
+      Counter<String> features = new Counter<String>();
+      features.incrementCount("WORD-" + word, 1.0);
+      for (int i = 1; i <= 3 && i <= word.length(); i++) {
+        features.incrementCount("SUFFIX-" + word.substring(word.length() - i), 1.0);
+      }
+      return features;
+    }
+  };
+  QuietOutput quietOutput = new QuietOutput();
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    SyntheticTreebank treebank = new SyntheticTreebank(seed);
+    trainingData = new ArrayList<LabeledInstance<String, String>>();
+    for (Tree<String> tree : treebank.generateTrees(numTrees)) {
+      List<String> words = tree.getYield();
+      List<String> tags = tree.getPreTerminalYield();
+      for (int position = 0; position < words.size(); position++) {
+        trainingData.add(new LabeledInstance<String, String>(tags.get(position), words.get(position)));
+      }
+    }
+    // the minimizer prints every iteration
+    quietOutput.silence();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    quietOutput.restore();
+  }
+
+  @Benchmark
+  public ProbabilisticClassifier<String, String> train() {
+    MaximumEntropyClassifier.Factory<String, String, String> factory = new MaximumEntropyClassifier.Factory<String, String, String>(1.0, iterations, featureExtractor);
+    return factory.trainClassifier(trainingData);
+  }
+}
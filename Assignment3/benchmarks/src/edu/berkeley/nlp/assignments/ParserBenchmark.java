@@ -0,0 +1,52 @@
+package edu.berkeley.nlp.assignments;
+
+import edu.berkeley.nlp.ling.Tree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times CKY parsing of synthetic sentences of a fixed length with a parser trained on synthetic trees.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ParserBenchmark {
+
+  @Param({"5", "10", "15", "20", "30"})
+  int length;
+
+  @Param("2000")
+  int trainTrees;
+
+  @Param("1")
+  long seed;
+
+  PCFGParserTester.CKYParser parser;
+  List<List<String>> sentences;
+  int next;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    SyntheticTreebank treebank = new SyntheticTreebank(seed);
+    QuietOutput quietOutput = new QuietOutput();
+    quietOutput.silence();
+    try {
+      parser = new PCFGParserTester.CKYParser(treebank.generateTrees(trainTrees));
+    } finally {
+      quietOutput.restore();
+    }
+    sentences = treebank.generateSentences(length, 10);
+  }
+
+  @Benchmark
+  public Tree<String> getBestParse() {
+    List<String> sentence = sentences.get(next);
+    next = (next + 1) % sentences.size();
+    return parser.getBestParse(sentence);
+  }
+}
@@ -0,0 +1,31 @@
+package edu.berkeley.nlp.assignments;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Swallows standard output for the length of a trial.  The grammar builders and the LBFGS minimizer print progress
+ * on every call; inside a forked benchmark JVM that would be timed as part of the operation and would bury the JMH
+ * report, so the noisy benchmarks silence it in their trial setup and restore it in their teardown.
+ */
+class QuietOutput {
+  static final PrintStream NULL_OUT = new PrintStream(new OutputStream() {
+    public void write(int b) {
+    }
+
+    public void write(byte[] b, int off, int len) {
+    }
+  });
+
+  private PrintStream out;
+
+  public void silence() {
+    out = System.out;
+    System.setOut(NULL_OUT);
+  }
+
+  public void restore() {
+    if (out != null) System.setOut(out);
+    out = null;
+  }
+}
@@ -0,0 +1,80 @@
+package edu.berkeley.nlp.assignments;
+
+import edu.berkeley.nlp.ling.Tree;
+import edu.berkeley.nlp.ling.Trees;
+import edu.berkeley.nlp.util.Filter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the tree transforms the parser runs on every training and guessed tree, over a batch of synthetic trees.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class TreesBenchmark {
+
+  @Param("200")
+  int numTrees;
+
+  @Param("1")
+  long seed;
+
+  List<Tree<String>> trees;
+  List<Tree<String>> annotatedTrees;
+  Filter<String> intermediateNodeFilter = PCFGParserTester.TreeAnnotations.INTERMEDIATE_NODE_FILTER;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    SyntheticTreebank treebank = new SyntheticTreebank(seed);
+    annotatedTrees = new ArrayList<Tree<String>>();
+    for (Tree<String> tree : treebank.generateTrees(numTrees)) {
+      annotatedTrees.add(PCFGParserTester.TreeAnnotations.annotateTree(tree));
+    }
+    trees = treebank.generateTrees(numTrees);
+  }
+
+  @Benchmark
+  public List<Tree<String>> spliceNodes() {
+    List<Tree<String>> splicedTrees = new ArrayList<Tree<String>>();
+    for (Tree<String> tree : annotatedTrees) {
+      splicedTrees.add(Trees.spliceNodes(tree, intermediateNodeFilter));
+    }
+    return splicedTrees;
+  }
+
+  @Benchmark
+  public List<Tree<String>> pruneNodes() {
+    List<Tree<String>> prunedTrees = new ArrayList<Tree<String>>();
+    for (Tree<String> tree : annotatedTrees) {
+      prunedTrees.add(Trees.pruneNodes(tree, intermediateNodeFilter));
+    }
+    return prunedTrees;
+  }
+
+  // un-annotating in place consumes its input, so both variants annotate a fresh parse first, as a parser builds one
+
+  @Benchmark
+  public List<Tree<String>> unAnnotateCopy() {
+    List<Tree<String>> unAnnotatedTrees = new ArrayList<Tree<String>>();
+    for (Tree<String> tree : trees) {
+      unAnnotatedTrees.add(PCFGParserTester.TreeAnnotations.unAnnotateTree(PCFGParserTester.TreeAnnotations.annotateTree(tree)));
+    }
+    return unAnnotatedTrees;
+  }
+
+  @Benchmark
+  public List<Tree<String>> unAnnotateInPlace() {
+    List<Tree<String>> unAnnotatedTrees = new ArrayList<Tree<String>>();
+    for (Tree<String> tree : trees) {
+      unAnnotatedTrees.add(PCFGParserTester.TreeAnnotations.unAnnotateTreeInPlace(PCFGParserTester.TreeAnnotations.annotateTree(tree)));
+    }
+    return unAnnotatedTrees;
+  }
+}
@@ -0,0 +1,51 @@
+package edu.berkeley.nlp.assignments;
+
+import edu.berkeley.nlp.ling.Tree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times building the unary closure of a grammar read off annotated synthetic trees.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class UnaryClosureBenchmark {
+
+  @Param("2000")
+  int trainTrees;
+
+  @Param("1")
+  long seed;
+
+  PCFGParserTester.Grammar grammar;
+  QuietOutput quietOutput = new QuietOutput();
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    SyntheticTreebank treebank = new SyntheticTreebank(seed);
+    List<Tree<String>> annotatedTrees = new ArrayList<Tree<String>>();
+    for (Tree<String> tree : treebank.generateTrees(trainTrees)) {
+      annotatedTrees.add(PCFGParserTester.TreeAnnotations.annotateTree(tree));
+    }
+    grammar = new PCFGParserTester.Grammar(annotatedTrees);
+    // every closure prints its size
+    quietOutput.silence();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    quietOutput.restore();
+  }
+
+  @Benchmark
+  public PCFGParserTester.UnaryClosure build() {
+    return new PCFGParserTester.UnaryClosure(grammar);
+  }
+}
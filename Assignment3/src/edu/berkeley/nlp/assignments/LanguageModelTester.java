@@ -1,11 +1,10 @@
 package edu.berkeley.nlp.assignments;
 
+import edu.berkeley.nlp.io.IOUtils;
 import edu.berkeley.nlp.langmodel.LanguageModel;
 import edu.berkeley.nlp.util.CommandLineUtils;
 
 import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
 import java.text.NumberFormat;
@@ -74,7 +73,10 @@ public class LanguageModelTester {
 
       public boolean hasNext() {
         try {
-          return reader.ready();
+          if (reader.ready()) return true;
+          // at the end: release the file (and any read-ahead thread) now
+          reader.close();
+          return false;
         } catch (IOException e) {
           return false;
         }
@@ -108,10 +110,10 @@ public class LanguageModelTester {
 
     public Iterator<List<String>> iterator() {
       try {
-        BufferedReader reader = new BufferedReader(new FileReader(fileName));
+        BufferedReader reader = IOUtils.openReader(fileName);
         return new SentenceIterator(reader);
-      } catch (FileNotFoundException e) {
-        throw new RuntimeException("Problem with SentenceIterator for " + fileName);
+      } catch (IOException e) {
+        throw new RuntimeException("Problem with SentenceIterator for " + fileName, e);
       }
     }
 
@@ -1,11 +1,20 @@
 package edu.berkeley.nlp.assignments;
 
 import edu.berkeley.nlp.io.PennTreebankReader;
+import edu.berkeley.nlp.io.TreebankCache;
 import edu.berkeley.nlp.ling.Tree;
+import edu.berkeley.nlp.ling.TreeBank;
 import edu.berkeley.nlp.ling.Trees;
 import edu.berkeley.nlp.parser.EnglishPennTreebankParseEvaluator;
+import edu.berkeley.nlp.parser.ParseMetrics;
+import edu.berkeley.nlp.parser.ParseMetricsTable;
 import edu.berkeley.nlp.util.*;
 
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
 import java.lang.reflect.Array;
 import java.util.*;
 import java.util.concurrent.*;
@@ -24,6 +33,87 @@ public class PCFGParserTester {
     Tree<String> getBestParse(List<String> sentence);
   }
 
+  /**
+   * Parsers which can report chart statistics.  The harness hands over a metrics object before each call to
+   * getBestParse(); the parser fills in its chart counters, or ignores it if it is null.
+   */
+  static interface InstrumentedParser extends Parser {
+    void setMetrics(ParseMetrics metrics);
+  }
+
+  /**
+   * A markovization scheme: how training trees are annotated and binarized before the grammar is read off them, and
+   * how the parser's output is mapped back to plain treebank trees for scoring.
+   */
+  static interface TreeAnnotator {
+    Tree<String> annotateTree(Tree<String> unAnnotatedTree);
+
+    /**
+     * Maps a parse the caller has just built, and owns, back to a treebank tree; it may be rewritten in place.
+     */
+    Tree<String> unAnnotateTree(Tree<String> annotatedTree);
+  }
+
+  /**
+   * The available markovization schemes, by the name used with -annotation and -sweep.
+   */
+  static final Map<String, TreeAnnotator> TREE_ANNOTATORS = new LinkedHashMap<String, TreeAnnotator>();
+
+  static {
+    TREE_ANNOTATORS.put("binarize", new TreeAnnotator() {
+      public Tree<String> annotateTree(Tree<String> unAnnotatedTree) {
+        return TreeAnnotations.annotateTree(unAnnotatedTree);
+      }
+
+      public Tree<String> unAnnotateTree(Tree<String> annotatedTree) {
+        return TreeAnnotations.unAnnotateTreeInPlace(annotatedTree);
+      }
+    });
+    TREE_ANNOTATORS.put("v2", new TreeAnnotator() {
+      public Tree<String> annotateTree(Tree<String> unAnnotatedTree) {
+        return TreeAnnotationsVertical2Order.annotateTree(unAnnotatedTree);
+      }
+
+      public Tree<String> unAnnotateTree(Tree<String> annotatedTree) {
+        return TreeAnnotations.unAnnotateTreeInPlace(annotatedTree);
+      }
+    });
+    TREE_ANNOTATORS.put("h1", new TreeAnnotator() {
+      public Tree<String> annotateTree(Tree<String> unAnnotatedTree) {
+        return TreeAnnotationsHorizontal1Order.annotateTree(unAnnotatedTree);
+      }
+
+      public Tree<String> unAnnotateTree(Tree<String> annotatedTree) {
+        return TreeAnnotations.unAnnotateTreeInPlace(annotatedTree);
+      }
+    });
+    TREE_ANNOTATORS.put("h2", new TreeAnnotator() {
+      public Tree<String> annotateTree(Tree<String> unAnnotatedTree) {
+        return TreeAnnotationsHorizontal2Order.annotateTree(unAnnotatedTree);
+      }
+
+      public Tree<String> unAnnotateTree(Tree<String> annotatedTree) {
+        return TreeAnnotations.unAnnotateTreeInPlace(annotatedTree);
+      }
+    });
+    TREE_ANNOTATORS.put("v2h2", new TreeAnnotator() {
+      public Tree<String> annotateTree(Tree<String> unAnnotatedTree) {
+        return TreeAnnotationsVertical2OrderHorizontal2Order.annotateTree(unAnnotatedTree);
+      }
+
+      public Tree<String> unAnnotateTree(Tree<String> annotatedTree) {
+        return TreeAnnotations.unAnnotateTreeInPlace(annotatedTree);
+      }
+    });
+  }
+
+  static TreeAnnotator getTreeAnnotator(String name) {
+    TreeAnnotator treeAnnotator = TREE_ANNOTATORS.get(name);
+    if (treeAnnotator == null)
+      throw new IllegalArgumentException("Unknown annotation scheme: " + name + " (expected one of " + TREE_ANNOTATORS.keySet() + ")");
+    return treeAnnotator;
+  }
+
   /**
    * Baseline parser (though not a baseline I've ever seen before).  Tags the sentence using the baseline tagging
    * method, then either retrieves a known parse of that tag sequence, or builds a right-branching parse for unknown tag
@@ -147,7 +237,7 @@ public class PCFGParserTester {
     }
   }
 
-  static class CKYParser implements Parser {
+  static class CKYParser implements InstrumentedParser {
     Map<Integer, CounterMap<Integer, String>> pi;
     Map<Integer, CounterMap<Integer, String>> piUnary;
     Map<Integer, CounterMap<Integer, String>> piBinary;
@@ -157,9 +247,18 @@ public class PCFGParserTester {
     Lexicon lexicon;
     Grammar grammar;
     UnaryClosure uc;
+    TreeAnnotator treeAnnotator;
+    String rootChildLabel;
+    ParseMetrics metrics;
 
+    public void setMetrics(ParseMetrics metrics) {
+      this.metrics = metrics;
+    }
 
     public Tree<String> getBestParse(List<String> sentence) {
+      long binaryRelaxations = 0;
+      long unaryRelaxations = 0;
+      long backpointerWrites = 0;
       pi = new HashMap<>();
       bpPi = new HashMap<>();
       piUnary = new HashMap<>();
@@ -195,6 +294,7 @@ public class PCFGParserTester {
               bpPi.get(i).put(i, new HashMap<String, UnaryRule>());
             }
             bpPi.get(i).get(i).put(preTerminal.getParent(), preTerminal);
+            backpointerWrites++;
           }
         }
 
@@ -220,12 +320,14 @@ public class PCFGParserTester {
 
           for (UnaryRule unaryRuleClosed : uc.getClosedUnaryRulesByChild(tag))
           {
+            unaryRelaxations++;
             piUnary.get(i).setCount(i, unaryRuleClosed.getParent(), unaryRuleClosed.getScore() * pi.get(i).getCount(i, tag));
             if (!bpUnary.get(i).containsKey(i))
             {
               bpUnary.get(i).put(i, new HashMap<String, UnaryRule>());
             }
             bpUnary.get(i).get(i).put(unaryRuleClosed.getParent(), unaryRuleClosed);
+            backpointerWrites++;
           }
           UnaryRule preTerminal = new UnaryRule(tag, sentence.get(i - 1));
           preTerminal.setScore(pi.get(i).getCount(i, tag));
@@ -235,7 +337,7 @@ public class PCFGParserTester {
             bpUnary.get(i).put(i, new HashMap<String, UnaryRule>());
           }
           bpUnary.get(i).get(i).put(preTerminal.getParent(), preTerminal);
-
+          backpointerWrites++;
         }
       }
 
@@ -260,6 +362,7 @@ public class PCFGParserTester {
                   continue;
                 }
 
+                binaryRelaxations++;
                 double score = binaryRuleX.getScore() * piUnary.get(i).getCount(s, binaryRuleX.getLeftChild()) * piUnary.get(s + 1).getCount(j, binaryRuleX.getRightChild());
                 if (score > maxScore) {
                   maxScore = score;
@@ -281,6 +384,7 @@ public class PCFGParserTester {
                 bpBinary.get(i).put(j, new HashMap<String, BinaryRule>());
               }
               bpBinary.get(i).get(j).put(parent, maxArg);
+              backpointerWrites++;
             }
           }
 
@@ -295,6 +399,7 @@ public class PCFGParserTester {
                 continue;
               }
 
+              unaryRelaxations++;
               double score = unaryRuleClosure.getScore() * piBinary.get(i).getCount(j, unaryRuleClosure.getChild());
               if (score > maxScore) {
                 maxScore = score;
@@ -307,11 +412,24 @@ public class PCFGParserTester {
                 bpUnary.get(i).put(j, new HashMap<String, UnaryRule>());
               }
               bpUnary.get(i).get(j).put(parent, maxArg);
+              backpointerWrites++;
             }
           }
         }
       }
 
+      if (metrics != null) {
+        for (int i = 1; i < sentence.size() + 1; i++) {
+          for (int j = i; j < sentence.size() + 1; j++) {
+            Counter<String> cell = (piUnary.get(i).containsKey(j) ? piUnary.get(i).getCounter(j) : null);
+            metrics.addCell(cell == null ? 0 : cell.size());
+          }
+        }
+        metrics.addBinaryRelaxations(binaryRelaxations);
+        metrics.addUnaryRelaxations(unaryRelaxations);
+        metrics.addBackpointerWrites(backpointerWrites);
+      }
+
       // Build tree again
       ArrayList<Tree<String>> children = new ArrayList<>();
       String root = "";
@@ -320,14 +438,13 @@ public class PCFGParserTester {
       }
       else
       {
-        root = "S";
-        //root = "S=ROOT";
+        root = rootChildLabel;
       }
       //children.add(buildTree(bpPi, bpUnary, bpBinary, root, 1, sentence.size(), false));
       children.add(buildTree(bpPi, bpUnary, bpBinary, root, 1, sentence.size(), false));
       Tree<String> annotatedBestParse = new Tree<>("ROOT", children);
 
-      return TreeAnnotations.unAnnotateTree(annotatedBestParse);
+      return treeAnnotator.unAnnotateTree(annotatedBestParse);
     }
 
     private Tree<String> buildTree(
@@ -374,17 +491,52 @@ public class PCFGParserTester {
     }
 
     public CKYParser(List<Tree<String>> trainTrees) {
+      this(trainTrees, getTreeAnnotator("binarize"), true);
+    }
+
+    /**
+     * If annotateInPlace is false the training trees are left untouched, so several parsers can be trained from the
+     * same treebank at once.
+     */
+    public CKYParser(List<Tree<String>> trainTrees, TreeAnnotator treeAnnotator, boolean annotateInPlace) {
+      this.treeAnnotator = treeAnnotator;
       pi = new HashMap<>();
       piUnary = new HashMap<>();
 
       System.out.print("Annotating / binarizing training trees ... ");
-      List<Tree<String>> annotatedTrainTrees = annotateTrees(trainTrees);
+      List<Tree<String>> annotatedTrainTrees = annotateTrees(trainTrees, annotateInPlace);
+      System.out.println("done.");
+      train(annotatedTrainTrees);
+    }
+
+    /**
+     * Trains from a tree arena, which is left untouched, so several parsers can be trained from it at once.  Each
+     * training tree is built from the arena once and annotated; the annotated trees are only held while training, as
+     * the grammar, the root label and the lexicon each pass over all of them.
+     */
+    public CKYParser(TreeBank<String> trainTrees, TreeAnnotator treeAnnotator) {
+      this.treeAnnotator = treeAnnotator;
+      pi = new HashMap<>();
+      piUnary = new HashMap<>();
+
+      System.out.print("Annotating / binarizing training trees ... ");
+      List<Tree<String>> annotatedTrainTrees = annotateTrees(trainTrees.asTrees(), false);
       System.out.println("done.");
+      train(annotatedTrainTrees);
+    }
 
+    private void train(List<Tree<String>> annotatedTrainTrees) {
       System.out.print("Building grammar ... ");
       grammar = new Grammar(annotatedTrainTrees);
       System.out.println("done. (" + grammar.getStates().size() + " states)");
 
+      // The label to start the tree from under ROOT ("S", or e.g. "S=ROOT" under vertical markovization).
+      Counter<String> rootChildCounter = new Counter<String>();
+      for (Tree<String> annotatedTrainTree : annotatedTrainTrees) {
+        rootChildCounter.incrementCount(annotatedTrainTree.getChildren().get(0).getLabel(), 1.0);
+      }
+      rootChildLabel = rootChildCounter.argMax();
+
       System.out.println("Build unary closures ... ");
       uc = new UnaryClosure(grammar);
       System.out.println("done.");
@@ -395,14 +547,17 @@ public class PCFGParserTester {
       System.out.println("done.");
     }
 
-    private List<Tree<String>> annotateTrees(List<Tree<String>> trees) {
+    private List<Tree<String>> annotateTrees(List<Tree<String>> trees, boolean annotateInPlace) {
+      if (!annotateInPlace) {
+        List<Tree<String>> annotatedTrees = new ArrayList<Tree<String>>();
+        for (Tree<String> tree : trees) {
+          annotatedTrees.add(treeAnnotator.annotateTree(tree));
+        }
+        return annotatedTrees;
+      }
       for (Tree<String> tree : trees) {
         // Replace in place to avoid running out of memory.
-        Tree<String> annotatedTree = TreeAnnotations.annotateTree(tree);
-        //Tree<String> annotatedTree = TreeAnnotationsVertical2Order.annotateTree(tree);
-        //Tree<String> annotatedTree = TreeAnnotationsHorizontal1Order.annotateTree(tree);
-        //Tree<String> annotatedTree = TreeAnnotationsHorizontal2Order.annotateTree(tree);
-        //Tree<String> annotatedTree = TreeAnnotationsVertical2OrderHorizontal2Order.annotateTree(tree);
+        Tree<String> annotatedTree = treeAnnotator.annotateTree(tree);
         tree.setLabel(annotatedTree.getLabel());
         tree.setChildren(annotatedTree.getChildren());
       }
@@ -458,6 +613,23 @@ public class PCFGParserTester {
       Tree<String> unAnnotatedTree = (new Trees.FunctionNodeStripper()).transformTree(debinarizedTree);
       return unAnnotatedTree;
     }
+
+    static final Filter<String> INTERMEDIATE_NODE_FILTER = new Filter<String>() {
+      public boolean accept(String s) {
+        return s.startsWith("@");
+      }
+    };
+
+    static final Trees.TreeTransformer<String> IN_PLACE_FUNCTION_NODE_STRIPPER = new Trees.TreeTransformerPipeline<String>(true).add(new Trees.FunctionNodeStripper());
+
+    /**
+     * Same as unAnnotateTree() for every scheme here, but splices and strips the parse in place instead of copying it
+     * twice; for parses the caller has just built and owns.
+     */
+    public static Tree<String> unAnnotateTreeInPlace(Tree<String> annotatedTree) {
+      Tree<String> debinarizedTree = Trees.spliceNodesInPlace(annotatedTree, INTERMEDIATE_NODE_FILTER);
+      return IN_PLACE_FUNCTION_NODE_STRIPPER.transformTree(debinarizedTree);
+    }
   }
 
   static class TreeAnnotationsVertical2Order {
@@ -1144,6 +1316,11 @@ public class PCFGParserTester {
     String testMode = "test";
     int maxTrainLength = 1000;
     int maxTestLength = 40;
+    String metricsPath = null;
+    String guessPath = null;
+    String annotation = "binarize";
+    List<String> sweepAnnotations = null;
+    int numThreads = Runtime.getRuntime().availableProcessors();
 
     // Update defaults using command line specifications
     if (argMap.containsKey("-path")) {
@@ -1170,29 +1347,71 @@ public class PCFGParserTester {
     if (argMap.containsKey("-quiet")) {
       verbose = false;
     }
+    if (argMap.containsKey("-metrics")) {
+      metricsPath = argMap.get("-metrics");
+      System.out.println("Writing parse metrics to: " + metricsPath + ".csv, " + metricsPath + ".json");
+    }
+    if (argMap.containsKey("-writeGuesses")) {
+      guessPath = argMap.get("-writeGuesses");
+      System.out.println("Writing guessed trees to: " + guessPath);
+    }
+    if (argMap.containsKey("-annotation")) {
+      annotation = argMap.get("-annotation");
+    }
+    if (argMap.containsKey("-sweep")) {
+      String sweepString = argMap.get("-sweep");
+      if (sweepString == null || sweepString.equalsIgnoreCase("all"))
+        sweepAnnotations = new ArrayList<String>(TREE_ANNOTATORS.keySet());
+      else
+        sweepAnnotations = Arrays.asList(sweepString.split(","));
+      for (String sweepAnnotation : sweepAnnotations) {
+        getTreeAnnotator(sweepAnnotation);
+      }
+    }
+    if (argMap.containsKey("-threads")) {
+      numThreads = Integer.parseInt(argMap.get("-threads"));
+    }
 
     System.out.print("Loading training trees (sections 2-21) ... ");
-    List<Tree<String>> trainTrees = readTrees(basePath, 200, 2199, maxTrainLength);
-    System.out.println("done. (" + trainTrees.size() + " trees)");
-    List<Tree<String>> testTrees = null;
+    int testLow = 2300;
+    int testHigh = 2399;
     if (testMode.equalsIgnoreCase("validate")) {
-      System.out.print("Loading validation trees (section 22) ... ");
-      testTrees = readTrees(basePath, 2200, 2299, maxTestLength);
-    } else {
-      System.out.print("Loading test trees (section 23) ... ");
-      testTrees = readTrees(basePath, 2300, 2399, maxTestLength);
+      testLow = 2200;
+      testHigh = 2299;
     }
-    System.out.println("done. (" + testTrees.size() + " trees)");
+
+    if (sweepAnnotations != null) {
+      // every scheme annotates its own copy of the training trees, so they are all kept in arenas
+      TreeBank<String> trainTreeBank = new TreeBank<String>(readTrees(basePath, 200, 2199, maxTrainLength, false));
+      System.out.println("done. (" + trainTreeBank.size() + " trees, " + trainTreeBank.getNumNodes() + " nodes)");
+      // every scheme makes its own pass over the test set, so here it is read into memory once
+      System.out.print("Loading test trees (files " + testLow + "-" + testHigh + ") ... ");
+      List<Tree<String>> testTrees = readTrees(basePath, testLow, testHigh, maxTestLength, true);
+      System.out.println("done. (" + testTrees.size() + " trees)");
+      sweepAnnotations(trainTreeBank, testTrees, sweepAnnotations, numThreads);
+      return;
+    }
+
+    List<Tree<String>> trainTrees = readTrees(basePath, 200, 2199, maxTrainLength, false);
+    System.out.println("done. (" + trainTrees.size() + " trees)");
 
     // TODO : Build a better parser!
     //final Parser parser = new BaselineParser(trainTrees);
-    Parser parser = new CKYParser(trainTrees);
+    System.out.println("Annotation scheme: " + annotation);
+    Parser parser = new CKYParser(trainTrees, getTreeAnnotator(annotation), true);
 
-    testParser(parser, testTrees, verbose);
+    System.out.println("Streaming test trees (files " + testLow + "-" + testHigh + ")");
+    testParser(parser, streamTrees(basePath, testLow, testHigh), maxTestLength, verbose, metricsPath, guessPath);
   }
 
-  private static void testParser(final Parser parser, List<Tree<String>> testTrees, final boolean verbose) {
-    final EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String> eval = new EnglishPennTreebankParseEvaluator.LabeledConstituentEval<String>(Collections.singleton("ROOT"), new HashSet<String>(Arrays.asList(new String[]{"''", "``", ".", ":", ","})));
+  /**
+   * Parses and scores the test trees one at a time, so only the tree currently being parsed is held in memory.  Trees
+   * whose yield is longer than maxLength are skipped.
+   */
+  private static void testParser(final Parser parser, Iterable<Tree<String>> testTrees, int maxLength, final boolean verbose, String metricsPath, String guessPath) {
+    final EnglishPennTreebankParseEvaluator.PackedLabeledConstituentEval<String> eval = makeEvaluator();
+    EnglishPennTreebankParseEvaluator.EvalAccumulator totals = new EnglishPennTreebankParseEvaluator.EvalAccumulator();
+    PrintWriter out = new PrintWriter(System.out, true);
 //    final Object evalLock = new Object();
 //
 //    ExecutorService exec = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
@@ -1228,25 +1447,202 @@ public class PCFGParserTester {
 //    } catch (InterruptedException e) {
 //      System.out.println("Failed");
 //    }
+    ParseMetricsTable metricsTable = (metricsPath != null ? new ParseMetricsTable() : null);
+    ParseMetrics metrics = new ParseMetrics();
+    if (metricsTable != null && parser instanceof InstrumentedParser) {
+      ((InstrumentedParser) parser).setMetrics(metrics);
+    }
+    Writer guessWriter = null;
+    if (guessPath != null) {
+      try {
+        guessWriter = new BufferedWriter(new FileWriter(guessPath));
+      } catch (IOException e) {
+        throw new RuntimeException("Error opening guess file " + guessPath, e);
+      }
+    }
+    int numTestTrees = 0;
     for (Tree<String> testTree : testTrees) {
       List<String> testSentence = testTree.getYield();
+      if (testSentence.size() > maxLength)
+        continue;
+      numTestTrees++;
+      metrics.reset(testSentence.size());
+      metrics.start();
       Tree<String> guessedTree = parser.getBestParse(testSentence);
+      metrics.stop();
       if (verbose) {
-        System.out.println("Guess:\n" + Trees.PennTreeRenderer.render(guessedTree));
-        System.out.println("Gold:\n" + Trees.PennTreeRenderer.render(testTree));
+        // out never throws; the renderer only declares IOException for other outputs
+        try {
+          out.print("Guess:\n");
+          Trees.PennTreeRenderer.render(guessedTree, out);
+          out.print("\nGold:\n");
+          Trees.PennTreeRenderer.render(testTree, out);
+          out.println();
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+      if (guessWriter != null) {
+        try {
+          Trees.PennTreeRenderer.render(guessedTree, guessWriter);
+        } catch (IOException e) {
+          throw new RuntimeException("Error writing guess file " + guessPath, e);
+        }
+      }
+      EnglishPennTreebankParseEvaluator.EvalAccumulator sentenceScores = new EnglishPennTreebankParseEvaluator.EvalAccumulator();
+      eval.evaluate(guessedTree, testTree, sentenceScores);
+      sentenceScores.display(" [Current] ", out);
+      totals.merge(sentenceScores);
+      if (metricsTable != null) {
+        metricsTable.add(metrics, sentenceScores.getCorrectEvents(), sentenceScores.getGuessedEvents(), sentenceScores.getGoldEvents());
+      }
+    }
+    if (guessWriter != null) {
+      try {
+        guessWriter.close();
+      } catch (IOException e) {
+        throw new RuntimeException("Error writing guess file " + guessPath, e);
+      }
+    }
+    System.out.println("Parsed " + numTestTrees + " test trees");
+    totals.display(" [Average] ", out);
+    if (metricsTable != null) {
+      writeMetrics(metricsTable, metricsPath);
+    }
+  }
+
+  static class SweepResult {
+    String annotation;
+    int numStates;
+    int numBinaryRules;
+    int numUnaryRules;
+    double trainSeconds;
+    double msPerSentence;
+    double f1;
+
+    public String toString() {
+      return String.format("%-10s %8d %10d %10d %10.1f %12.1f %8.2f", annotation, numStates, numBinaryRules, numUnaryRules, trainSeconds, msPerSentence, f1 * 100.0);
+    }
+  }
+
+  /**
+   * Trains and tests one CKYParser per annotation scheme, concurrently.  All parsers read the same normalized training
+   * and test trees, which are never modified; each parser is only ever used from the thread that built it.
+   */
+  private static void sweepAnnotations(final TreeBank<String> trainTrees, final List<Tree<String>> testTrees, List<String> annotations, int numThreads) {
+    System.out.println("Sweeping annotation schemes " + annotations + " on " + numThreads + " threads");
+    final List<Tree<String>> sharedTestTrees = Collections.unmodifiableList(testTrees);
+    ExecutorService exec = Executors.newFixedThreadPool(Math.max(1, Math.min(numThreads, annotations.size())));
+    List<Future<SweepResult>> futures = new ArrayList<Future<SweepResult>>();
+    try {
+      for (final String annotation : annotations) {
+        futures.add(exec.submit(new Callable<SweepResult>() {
+          public SweepResult call() {
+            return runSweepAnnotation(annotation, trainTrees, sharedTestTrees);
+          }
+        }));
+      }
+      List<SweepResult> results = new ArrayList<SweepResult>();
+      for (Future<SweepResult> future : futures) {
+        results.add(future.get());
       }
-      eval.evaluate(guessedTree, testTree);
+      System.out.println(String.format("%-10s %8s %10s %10s %10s %12s %8s", "scheme", "states", "binary", "unary", "train s", "ms/sentence", "F1"));
+      for (SweepResult result : results) {
+        System.out.println(result);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted during annotation sweep", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Annotation sweep failed", e.getCause());
+    } finally {
+      exec.shutdown();
+    }
+  }
+
+  private static SweepResult runSweepAnnotation(String annotation, TreeBank<String> trainTrees, List<Tree<String>> testTrees) {
+    SweepResult result = new SweepResult();
+    result.annotation = annotation;
+    long trainStart = System.nanoTime();
+    CKYParser parser = new CKYParser(trainTrees, getTreeAnnotator(annotation));
+    result.trainSeconds = (System.nanoTime() - trainStart) / 1e9;
+    result.numStates = parser.grammar.getStates().size();
+    result.numBinaryRules = parser.grammar.getBinaryRules().size();
+    result.numUnaryRules = parser.grammar.getUnaryRules().size();
+
+    EnglishPennTreebankParseEvaluator.PackedLabeledConstituentEval<String> eval = makeEvaluator();
+    // per-sentence scores from concurrent schemes would interleave; only the totals are reported
+    EnglishPennTreebankParseEvaluator.EvalAccumulator totals = new EnglishPennTreebankParseEvaluator.EvalAccumulator();
+    long parseNanos = 0;
+    for (Tree<String> testTree : testTrees) {
+      List<String> testSentence = testTree.getYield();
+      long parseStart = System.nanoTime();
+      Tree<String> guessedTree = parser.getBestParse(testSentence);
+      parseNanos += System.nanoTime() - parseStart;
+      eval.evaluate(guessedTree, testTree, totals);
+    }
+    result.msPerSentence = (testTrees.isEmpty() ? 0.0 : parseNanos / 1e6 / testTrees.size());
+    result.f1 = totals.getF1();
+    System.out.println("Finished annotation scheme " + annotation + " (F1 " + ((int) (result.f1 * 10000)) / 100.0 + ")");
+    return result;
+  }
+
+  static EnglishPennTreebankParseEvaluator.PackedLabeledConstituentEval<String> makeEvaluator() {
+    return new EnglishPennTreebankParseEvaluator.PackedLabeledConstituentEval<String>(Collections.singleton("ROOT"), new HashSet<String>(Arrays.asList(new String[]{"''", "``", ".", ":", ","})));
+  }
+
+  private static void writeMetrics(ParseMetricsTable metricsTable, String metricsPath) {
+    try {
+      Writer csvWriter = new FileWriter(metricsPath + ".csv");
+      metricsTable.writeCsv(csvWriter);
+      csvWriter.close();
+      Writer jsonWriter = new FileWriter(metricsPath + ".json");
+      metricsTable.writeJson(jsonWriter);
+      jsonWriter.close();
+    } catch (IOException e) {
+      throw new RuntimeException("Error writing parse metrics to " + metricsPath, e);
     }
-    eval.display(true);
   }
 
-  private static List<Tree<String>> readTrees(String basePath, int low, int high, int maxLength) {
-    Collection<Tree<String>> trees = PennTreebankReader.readTrees(basePath, low, high);
-    // normalize trees
-    Trees.TreeTransformer<String> treeTransformer = new Trees.StandardTreeNormalizer();
+  /**
+   * Returns the normalized trees in the given file range without reading them up front: each iteration reads, and
+   * normalizes in place, one tree at a time.
+   */
+  private static Iterable<Tree<String>> streamTrees(String basePath, int low, int high) {
+    final Collection<Tree<String>> trees = PennTreebankReader.readTrees(basePath, low, high);
+    return new Iterable<Tree<String>>() {
+      public Iterator<Tree<String>> iterator() {
+        final Iterator<Tree<String>> treeIterator = trees.iterator();
+        final Trees.TreeTransformer<String> treeTransformer = new Trees.StandardTreeNormalizer(true);
+        return new Iterator<Tree<String>>() {
+          public boolean hasNext() {
+            return treeIterator.hasNext();
+          }
+
+          public Tree<String> next() {
+            return treeTransformer.transformTree(treeIterator.next());
+          }
+
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * Reads and normalizes the trees no longer than maxLength.  Trees that will be passed over repeatedly are frozen, so
+   * their yields are computed once.
+   */
+  private static List<Tree<String>> readTrees(String basePath, int low, int high, int maxLength, boolean freeze) {
+    Collection<Tree<String>> trees = TreebankCache.readTrees(basePath, low, high);
+    // normalize trees; they were just read, so in place
+    Trees.TreeTransformer<String> treeTransformer = new Trees.StandardTreeNormalizer(true);
     List<Tree<String>> normalizedTreeList = new ArrayList<Tree<String>>();
     for (Tree<String> tree : trees) {
       Tree<String> normalizedTree = treeTransformer.transformTree(tree);
+      if (freeze) normalizedTree.freeze();
       if (normalizedTree.getYield().size() > maxLength)
         continue;
 //      System.out.println(Trees.PennTreeRenderer.render(normalizedTree));
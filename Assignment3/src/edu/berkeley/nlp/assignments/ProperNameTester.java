@@ -1,6 +1,7 @@
 package edu.berkeley.nlp.assignments;
 
 import edu.berkeley.nlp.classify.*;
+import edu.berkeley.nlp.io.IOUtils;
 import edu.berkeley.nlp.util.CommandLineUtils;
 import edu.berkeley.nlp.util.Pair;
 import edu.berkeley.nlp.util.Counter;
@@ -11,8 +12,6 @@ import java.util.Collection;
 import java.util.ArrayList;
 import java.util.Map;
 import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 
 /**
@@ -55,7 +54,7 @@ public class ProperNameTester {
 
 
   private static List<LabeledInstance<String, String>> loadData(String fileName) throws IOException {
-    BufferedReader reader = new BufferedReader(new FileReader(fileName));
+    BufferedReader reader = IOUtils.openReader(fileName);
     List<LabeledInstance<String, String>> labeledInstances = new ArrayList<LabeledInstance<String, String>>();
     while (reader.ready()) {
       String line = reader.readLine();
@@ -65,6 +64,7 @@ public class ProperNameTester {
       LabeledInstance<String, String> labeledInstance = new LabeledInstance<String, String>(label, name);
       labeledInstances.add(labeledInstance);
     }
+    reader.close();
     return labeledInstances;
   }
 
@@ -4,14 +4,24 @@ import edu.berkeley.nlp.ling.Tree;
 import edu.berkeley.nlp.ling.Trees;
 import edu.berkeley.nlp.util.CollectionUtils;
 import edu.berkeley.nlp.util.Filter;
+import edu.berkeley.nlp.util.Indexer;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.FileReader;
 import java.io.FileNotFoundException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.math.BigInteger;
 
 /**
  * @author Dan Klein
@@ -22,9 +32,31 @@ public class ChartParser {
 
   static class Lexicon {
     Map<String,List<String>> wordToTags = new HashMap<String, List<String>>();
+    Map<String,int[]> wordToTagIds;
+    Grammar indexedGrammar;
     public List<String> getTags(String word) {
       return wordToTags.get(word);
     }
+    public int[] getTagIds(String word) {
+      return wordToTagIds.get(word);
+    }
+    /**
+     * Maps every tag to its symbol id in the given grammar, adding tags the grammar does not mention.
+     */
+    public synchronized void indexTags(Grammar grammar) {
+      if (indexedGrammar == grammar) return;
+      Map<String,int[]> tagIds = new HashMap<String, int[]>();
+      for (Map.Entry<String, List<String>> entry : wordToTags.entrySet()) {
+        List<String> tags = entry.getValue();
+        int[] ids = new int[tags.size()];
+        for (int i = 0; i < ids.length; i++) {
+          ids[i] = grammar.addSymbol(tags.get(i));
+        }
+        tagIds.put(entry.getKey(), ids);
+      }
+      wordToTagIds = tagIds;
+      indexedGrammar = grammar;
+    }
     public String toString() {
       StringBuilder sb = new StringBuilder();
       for (String word: CollectionUtils.sort(wordToTags.keySet())) {
@@ -57,6 +89,117 @@ public class ChartParser {
     Map<String, List<BinaryRule>> binaryRulesByRightChild = new HashMap<String, List<BinaryRule>>();
     Map<String, List<UnaryRule>> unaryRulesByChild = new HashMap<String, List<UnaryRule>>();
 
+    Indexer<String> symbols = new Indexer<String>();
+    int compiledSymbols = -1;
+    BinaryRule[][] binaryRulesByLeftChildId;
+    BinaryRule[][] binaryRulesByRightChildId;
+    UnaryRule[][] unaryRulesByChildId;
+    BitSet[] leftCorners;
+    BitSet[] rightSiblingLeftCorners;
+
+    public int getNumSymbols() {
+      return symbols.size();
+    }
+
+    public String getSymbol(int symbolId) {
+      return symbols.get(symbolId);
+    }
+
+    /**
+     * The id of the given symbol, or -1 if neither the grammar nor an indexed lexicon uses it.
+     */
+    public int getSymbolId(String symbol) {
+      return symbols.indexOf(symbol);
+    }
+
+    synchronized int addSymbol(String symbol) {
+      return symbols.addAndGetIndex(symbol);
+    }
+
+    public BinaryRule[] getBinaryRulesByLeftChild(int leftChild) {
+      return binaryRulesByLeftChildId[leftChild];
+    }
+
+    public BinaryRule[] getBinaryRulesByRightChild(int rightChild) {
+      return binaryRulesByRightChildId[rightChild];
+    }
+
+    public UnaryRule[] getUnaryRulesByChild(int child) {
+      return unaryRulesByChildId[child];
+    }
+
+    /**
+     * The symbols which can begin a constituent with the given label: the label itself, and (transitively) the left
+     * child of any of its binary rules or the child of any of its unary rules.
+     */
+    public BitSet getLeftCorners(int symbol) {
+      return leftCorners[symbol];
+    }
+
+    /**
+     * The symbols which can begin a right sibling of the given symbol, over all binary rules with it as left child.
+     */
+    public BitSet getRightSiblingLeftCorners(int symbol) {
+      return rightSiblingLeftCorners[symbol];
+    }
+
+    /**
+     * Builds the rule arrays indexed by child symbol id.  Must be called again after symbols have been added.
+     */
+    public synchronized void compile() {
+      if (compiledSymbols == symbols.size()) return;
+      int numSymbols = symbols.size();
+      BinaryRule[][] byLeftChild = new BinaryRule[numSymbols][];
+      BinaryRule[][] byRightChild = new BinaryRule[numSymbols][];
+      UnaryRule[][] byChild = new UnaryRule[numSymbols][];
+      for (int symbolId = 0; symbolId < numSymbols; symbolId++) {
+        String symbol = symbols.get(symbolId);
+        byLeftChild[symbolId] = getBinaryRulesByLeftChild(symbol).toArray(new BinaryRule[0]);
+        byRightChild[symbolId] = getBinaryRulesByRightChild(symbol).toArray(new BinaryRule[0]);
+        byChild[symbolId] = getUnaryRulesByChild(symbol).toArray(new UnaryRule[0]);
+      }
+      binaryRulesByLeftChildId = byLeftChild;
+      binaryRulesByRightChildId = byRightChild;
+      unaryRulesByChildId = byChild;
+      computeLeftCorners(numSymbols);
+      compiledSymbols = numSymbols;
+    }
+
+    private void computeLeftCorners(int numSymbols) {
+      BitSet[] corners = new BitSet[numSymbols];
+      for (int symbol = 0; symbol < numSymbols; symbol++) {
+        corners[symbol] = new BitSet(numSymbols);
+        corners[symbol].set(symbol);
+      }
+      boolean changed = true;
+      while (changed) {
+        changed = false;
+        for (int child = 0; child < numSymbols; child++) {
+          for (UnaryRule unaryRule : unaryRulesByChildId[child]) {
+            changed |= addAll(corners[unaryRule.parentId], corners[child]);
+          }
+          for (BinaryRule binaryRule : binaryRulesByLeftChildId[child]) {
+            changed |= addAll(corners[binaryRule.parentId], corners[child]);
+          }
+        }
+      }
+      BitSet[] siblingCorners = new BitSet[numSymbols];
+      for (int leftChild = 0; leftChild < numSymbols; leftChild++) {
+        siblingCorners[leftChild] = new BitSet(numSymbols);
+        for (BinaryRule binaryRule : binaryRulesByLeftChildId[leftChild]) {
+          siblingCorners[leftChild].or(corners[binaryRule.rightChildId]);
+        }
+      }
+      leftCorners = corners;
+      rightSiblingLeftCorners = siblingCorners;
+    }
+
+    private static boolean addAll(BitSet target, BitSet source) {
+      int oldCardinality = target.cardinality();
+      target.or(source);
+      return target.cardinality() != oldCardinality;
+    }
+
     public List<BinaryRule> getBinaryRulesByLeftChild(String leftChild) {
       return CollectionUtils.getValueList(binaryRulesByLeftChild, leftChild);
     }
@@ -90,6 +233,8 @@ public class ChartParser {
     }
 
     public Grammar(BufferedReader in) throws IOException {
+      addSymbol("ROOT");
+      addSymbol("*e*");
       Pattern linePattern = Pattern.compile("^\\s*(\\S+)\\s*-*>\\s*(.*\\S+)\\s*$");
       while (in.ready()) {
         String line = in.readLine();
@@ -126,11 +271,16 @@ public class ChartParser {
     }
 
     private void addBinary(BinaryRule binaryRule) {
+      binaryRule.parentId = addSymbol(binaryRule.getParent());
+      binaryRule.leftChildId = addSymbol(binaryRule.getLeftChild());
+      binaryRule.rightChildId = addSymbol(binaryRule.getRightChild());
       CollectionUtils.addToValueList(binaryRulesByLeftChild, binaryRule.getLeftChild(), binaryRule);
       CollectionUtils.addToValueList(binaryRulesByRightChild, binaryRule.getRightChild(), binaryRule);
     }
 
     private void addUnary(UnaryRule unaryRule) {
+      unaryRule.parentId = addSymbol(unaryRule.getParent());
+      unaryRule.childId = addSymbol(unaryRule.getChild());
       CollectionUtils.addToValueList(unaryRulesByChild, unaryRule.getChild(), unaryRule);
     }
   }
@@ -138,6 +288,9 @@ public class ChartParser {
     String parent;
     String leftChild;
     String rightChild;
+    int parentId;
+    int leftChildId;
+    int rightChildId;
 
     public String getParent() {
       return parent;
@@ -185,6 +338,8 @@ public class ChartParser {
   static class UnaryRule {
     String parent;
     String child;
+    int parentId;
+    int childId;
 
     public String getParent() {
       return parent;
@@ -259,6 +414,7 @@ public class ChartParser {
     }
 
     String label;
+    int labelId;
     int start;
     int end;
     boolean discovered;
@@ -268,6 +424,10 @@ public class ChartParser {
       return label;
     }
 
+    public int getLabelId() {
+      return labelId;
+    }
+
     public int getStart() {
       return start;
     }
@@ -351,8 +511,9 @@ public class ChartParser {
       return "Edge:("+getLabel()+", "+getStart()+", "+getEnd()+")";
     }
 
-    public Edge(String label, int start, int end) {
+    public Edge(String label, int labelId, int start, int end) {
       this.label = label;
+      this.labelId = labelId;
       this.start = start;
       this.end = end;
       this.discovered = false;
@@ -360,70 +521,543 @@ public class ChartParser {
     }
   }
 
-  static class Chart {
-    static class Index {
-      String label;
-      int pos;
-
-      public String getLabel() {
-        return label;
-      }
-
-      public int getPos() {
-        return pos;
+  /**
+   * Read-only view of the packed parse forest under a goal edge.  Each edge appears once, with one backtrace per way of
+   * building it, so sub-derivations are shared between all the trees that use them.  Parses can be counted without
+   * enumerating them, and enumerated one tree at a time, either in the order getTrees() uses or smallest tree first.
+   * A unary cycle, or a cycle through empty edges, that can build a parse gives the forest infinitely many parses:
+   * countParses() reports that as null, and only the best-first enumeration can list them.
+   */
+  static class ParseForest {
+    /**
+     * One way of building an edge: a backtrace plus the ranks of the child derivations it uses.  Size is the number
+     * of nodes in the resulting tree, which is what the best-first enumeration minimizes.
+     */
+    static class Derivation implements Comparable<Derivation> {
+      Edge edge;
+      Edge.Backtrace backtrace;
+      int leftRank;
+      int rightRank;
+      int size;
+      long sequence;
+
+      public int compareTo(Derivation derivation) {
+        if (size != derivation.size) return (size < derivation.size ? -1 : 1);
+        return (sequence < derivation.sequence ? -1 : (sequence == derivation.sequence ? 0 : 1));
       }
 
       public boolean equals(Object o) {
         if (this == o) return true;
-        if (!(o instanceof Index)) return false;
+        if (!(o instanceof Derivation)) return false;
 
-        final Index index = (Index) o;
+        final Derivation derivation = (Derivation) o;
 
-        if (pos != index.pos) return false;
-        if (label != null ? !label.equals(index.label) : index.label != null) return false;
+        if (backtrace != derivation.backtrace) return false;
+        if (leftRank != derivation.leftRank) return false;
+        if (rightRank != derivation.rightRank) return false;
 
         return true;
       }
 
       public int hashCode() {
         int result;
-        result = (label != null ? label.hashCode() : 0);
-        result = 29 * result + pos;
+        result = System.identityHashCode(backtrace);
+        result = 29 * result + leftRank;
+        result = 29 * result + rightRank;
         return result;
       }
 
-      public String toString() {
-        return "Chart.Index:("+getLabel()+":"+getPos()+")";
+      Derivation(Edge edge, Edge.Backtrace backtrace, int leftRank, int rightRank) {
+        this.edge = edge;
+        this.backtrace = backtrace;
+        this.leftRank = leftRank;
+        this.rightRank = rightRank;
       }
+    }
+
+    /**
+     * Lazily extended list of an edge's derivations, in order of increasing size.  Waiting holds, by rank, the
+     * candidates of the edge's component which use a derivation of this edge that is not built yet.
+     */
+    static class RankedDerivations {
+      List<Derivation> derivations = new ArrayList<Derivation>();
+      Map<Integer, List<Derivation>> waiting = new HashMap<Integer, List<Derivation>>();
+      Component component;
+    }
+
+    /**
+     * A strongly connected set of edges, whose derivations are ranked together.  Edges on a cycle can each be built
+     * from the others, so no edge's list can be extended on its own: instead every derivation of the component comes
+     * out of one queue, smallest first, in the way Dijkstra's algorithm settles nodes.  A candidate using a derivation
+     * of the component which is not built yet waits for it; it is bigger than that derivation, so it cannot be due
+     * first.  An edge on no cycle is a component of its own, and then this is the usual lazy k-best extraction.
+     */
+    static class Component {
+      List<Edge> edges = new ArrayList<Edge>();
+      java.util.PriorityQueue<Derivation> candidates = new java.util.PriorityQueue<Derivation>();
+      Set<Derivation> seen = new HashSet<Derivation>();
+      boolean initialized;
+      // successors of the last derivation out are only queued when the next one is asked for
+      Derivation lastDerivation;
+    }
+
+    Edge goalEdge;
+    Map<Edge, BigInteger> parseCounts = new HashMap<Edge, BigInteger>();
+    Set<Edge> productiveEdges;
+    Boolean infinite;
+    Map<Edge, RankedDerivations> rankedDerivations;
+    long nextSequence = 0;
 
-      public Index(String label, int pos) {
-        this.label = label;
-        this.pos = pos;
+    public Edge getGoalEdge() {
+      return goalEdge;
+    }
+
+    /**
+     * The number of parses, or null if the forest has infinitely many.
+     */
+    public BigInteger countParses() {
+      if (hasInfinitelyManyParses()) return null;
+      return countParses(goalEdge);
+    }
+
+    /**
+     * True if a unary cycle or a cycle through empty edges can be used in some parse, so it can be repeated any number
+     * of times.
+     */
+    public boolean hasInfinitelyManyParses() {
+      if (infinite == null) {
+        infinite = isProductive(goalEdge) && hasProductiveCycle(goalEdge, new HashMap<Edge, Boolean>());
+      }
+      return infinite;
+    }
+
+    /**
+     * Depth-first search over the backtraces that build parses; an edge still on the search path is reached again only
+     * through a cycle.
+     */
+    private boolean hasProductiveCycle(Edge edge, Map<Edge, Boolean> onPath) {
+      Boolean edgeOnPath = onPath.get(edge);
+      if (edgeOnPath != null) return edgeOnPath;
+      onPath.put(edge, Boolean.TRUE);
+      for (Edge.Backtrace backtrace : edge.backtraces) {
+        if (!isProductive(backtrace)) continue;
+        for (Edge childEdge : getChildEdges(backtrace)) {
+          if (hasProductiveCycle(childEdge, onPath)) return true;
+        }
+      }
+      onPath.put(edge, Boolean.FALSE);
+      return false;
+    }
+
+    private static List<Edge> getChildEdges(Edge.Backtrace backtrace) {
+      if (backtrace instanceof Edge.UnaryBacktrace) {
+        return Collections.singletonList(((Edge.UnaryBacktrace) backtrace).getChildEdge());
+      }
+      if (backtrace instanceof Edge.BinaryBacktrace) {
+        Edge.BinaryBacktrace binaryBacktrace = (Edge.BinaryBacktrace) backtrace;
+        return Arrays.asList(binaryBacktrace.getLeftEdge(), binaryBacktrace.getRightEdge());
+      }
+      return Collections.emptyList();
+    }
+
+    /**
+     * The edges under the goal edge, in the order a depth-first search first reaches them.
+     */
+    private List<Edge> getReachableEdges() {
+      List<Edge> edges = new ArrayList<Edge>();
+      Set<Edge> reached = new HashSet<Edge>();
+      ArrayDeque<Edge> stack = new ArrayDeque<Edge>();
+      stack.push(goalEdge);
+      reached.add(goalEdge);
+      while (!stack.isEmpty()) {
+        Edge edge = stack.pop();
+        edges.add(edge);
+        for (Edge.Backtrace backtrace : edge.backtraces) {
+          for (Edge childEdge : getChildEdges(backtrace)) {
+            if (reached.add(childEdge)) stack.push(childEdge);
+          }
+        }
+      }
+      return edges;
+    }
+
+    /**
+     * True if the edge can be built into at least one finite tree.  The productive edges are found together, by
+     * adding edges with a productive backtrace until none is left to add.
+     */
+    private boolean isProductive(Edge edge) {
+      if (productiveEdges == null) {
+        productiveEdges = new HashSet<Edge>();
+        List<Edge> edges = getReachableEdges();
+        boolean changed = true;
+        while (changed) {
+          changed = false;
+          for (Edge reachableEdge : edges) {
+            if (productiveEdges.contains(reachableEdge)) continue;
+            for (Edge.Backtrace backtrace : reachableEdge.backtraces) {
+              if (isProductive(backtrace)) {
+                productiveEdges.add(reachableEdge);
+                changed = true;
+                break;
+              }
+            }
+          }
+        }
+      }
+      return productiveEdges.contains(edge);
+    }
+
+    private boolean isProductive(Edge.Backtrace backtrace) {
+      for (Edge childEdge : getChildEdges(backtrace)) {
+        if (!isProductive(childEdge)) return false;
+      }
+      return true;
+    }
+
+    private BigInteger countParses(Edge edge) {
+      BigInteger count = parseCounts.get(edge);
+      if (count != null) {
+        if (count.signum() < 0) throw new IllegalStateException("Unary cycle through " + edge + ": infinitely many parses");
+        return count;
+      }
+      parseCounts.put(edge, BigInteger.ONE.negate());
+      count = BigInteger.ZERO;
+      for (Edge.Backtrace backtrace : edge.backtraces) {
+        count = count.add(countParses(backtrace));
+      }
+      parseCounts.put(edge, count);
+      return count;
+    }
+
+    private BigInteger countParses(Edge.Backtrace backtrace) {
+      // backtraces which build nothing are skipped, so cycles among them are never followed
+      if (!isProductive(backtrace)) return BigInteger.ZERO;
+      if (backtrace instanceof Edge.UnaryBacktrace) {
+        return countParses(((Edge.UnaryBacktrace) backtrace).getChildEdge());
+      }
+      if (backtrace instanceof Edge.BinaryBacktrace) {
+        Edge.BinaryBacktrace binaryBacktrace = (Edge.BinaryBacktrace) backtrace;
+        return countParses(binaryBacktrace.getLeftEdge()).multiply(countParses(binaryBacktrace.getRightEdge()));
+      }
+      return BigInteger.ONE;
+    }
+
+    /**
+     * Builds the parse with the given index, in the order getTrees() would list it, without building any other.
+     */
+    public Tree<String> getTree(BigInteger index) {
+      BigInteger numParses = getFiniteParseCount();
+      if (index.signum() < 0 || index.compareTo(numParses) >= 0)
+        throw new IndexOutOfBoundsException("No parse " + index + " in a forest of " + numParses);
+      return getTree(goalEdge, index);
+    }
+
+    private BigInteger getFiniteParseCount() {
+      BigInteger numParses = countParses();
+      if (numParses == null) throw new IllegalStateException("Cycle under " + goalEdge + ": infinitely many parses, which only the best-first iterator lists");
+      return numParses;
+    }
+
+    private Tree<String> getTree(Edge edge, BigInteger index) {
+      for (Edge.Backtrace backtrace : edge.backtraces) {
+        BigInteger count = countParses(backtrace);
+        if (index.compareTo(count) >= 0) {
+          index = index.subtract(count);
+          continue;
+        }
+        if (backtrace instanceof Edge.WordBacktrace) {
+          return new Tree<String>(edge.getLabel(), Collections.singletonList(new Tree<String>(((Edge.WordBacktrace) backtrace).getWord())));
+        }
+        if (backtrace instanceof Edge.UnaryBacktrace) {
+          Tree<String> childTree = getTree(((Edge.UnaryBacktrace) backtrace).getChildEdge(), index);
+          return new Tree<String>(edge.getLabel(), Collections.singletonList(childTree));
+        }
+        Edge.BinaryBacktrace binaryBacktrace = (Edge.BinaryBacktrace) backtrace;
+        BigInteger[] leftAndRightIndex = index.divideAndRemainder(countParses(binaryBacktrace.getRightEdge()));
+        List<Tree<String>> children = new ArrayList<Tree<String>>(2);
+        children.add(getTree(binaryBacktrace.getLeftEdge(), leftAndRightIndex[0]));
+        children.add(getTree(binaryBacktrace.getRightEdge(), leftAndRightIndex[1]));
+        return new Tree<String>(edge.getLabel(), children);
       }
+      throw new IndexOutOfBoundsException("No parse " + index + " for " + edge);
     }
 
-    Map<Index, List<Edge>> edgesByLeftIndex = new HashMap<Index, List<Edge>>();
-    Map<Index, List<Edge>> edgesByRightIndex = new HashMap<Index, List<Edge>>();
+    /**
+     * Iterates over all parses in the order getTrees() lists them, building each tree only when it is requested.  A
+     * forest with infinitely many parses cannot be listed this way.
+     */
+    public Iterator<Tree<String>> iterator() {
+      final BigInteger numParses = getFiniteParseCount();
+      return new Iterator<Tree<String>>() {
+        BigInteger nextIndex = BigInteger.ZERO;
+
+        public boolean hasNext() {
+          return nextIndex.compareTo(numParses) < 0;
+        }
+
+        public Tree<String> next() {
+          if (!hasNext()) throw new NoSuchElementException();
+          Tree<String> tree = getTree(goalEdge, nextIndex);
+          nextIndex = nextIndex.add(BigInteger.ONE);
+          return tree;
+        }
+
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+
+    /**
+     * Iterates over the parses smallest tree (fewest nodes) first, extending each edge's list of derivations only as
+     * far as needed (lazy k-best extraction).  On a forest with infinitely many parses it never runs out.
+     */
+    public Iterator<Tree<String>> bestFirstIterator() {
+      return new Iterator<Tree<String>>() {
+        int nextRank = 0;
+
+        public boolean hasNext() {
+          return getKthDerivation(goalEdge, nextRank) != null;
+        }
+
+        public Tree<String> next() {
+          Derivation derivation = getKthDerivation(goalEdge, nextRank);
+          if (derivation == null) throw new NoSuchElementException();
+          nextRank++;
+          return buildTree(goalEdge, derivation);
+        }
+
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+
+    private RankedDerivations getRankedDerivations(Edge edge) {
+      if (rankedDerivations == null) findComponents();
+      return rankedDerivations.get(edge);
+    }
+
+    /**
+     * Groups the edges under the goal edge into strongly connected components (Tarjan's algorithm).
+     */
+    private void findComponents() {
+      rankedDerivations = new HashMap<Edge, RankedDerivations>();
+      findComponents(goalEdge, new HashMap<Edge, Integer>(), new HashSet<Edge>(), new ArrayDeque<Edge>());
+    }
+
+    /**
+     * Numbers the edges under the edge in depth-first order and returns the lowest number reachable from it through
+     * edges whose component is not yet complete.
+     */
+    private int findComponents(Edge edge, Map<Edge, Integer> indexes, Set<Edge> onStack, ArrayDeque<Edge> stack) {
+      int index = indexes.size();
+      indexes.put(edge, index);
+      int lowLink = index;
+      stack.push(edge);
+      onStack.add(edge);
+      for (Edge.Backtrace backtrace : edge.backtraces) {
+        for (Edge childEdge : getChildEdges(backtrace)) {
+          Integer childIndex = indexes.get(childEdge);
+          if (childIndex == null) {
+            lowLink = Math.min(lowLink, findComponents(childEdge, indexes, onStack, stack));
+          } else if (onStack.contains(childEdge)) {
+            lowLink = Math.min(lowLink, childIndex);
+          }
+        }
+      }
+      if (lowLink == index) {
+        Component component = new Component();
+        Edge member;
+        do {
+          member = stack.pop();
+          onStack.remove(member);
+          component.edges.add(member);
+          RankedDerivations ranked = new RankedDerivations();
+          ranked.component = component;
+          rankedDerivations.put(member, ranked);
+        } while (member != edge);
+        // the edges in the order they were reached
+        Collections.reverse(component.edges);
+      }
+      return lowLink;
+    }
+
+    private Derivation getKthDerivation(Edge edge, int rank) {
+      RankedDerivations ranked = getRankedDerivations(edge);
+      Component component = ranked.component;
+      if (!component.initialized) {
+        component.initialized = true;
+        for (Edge member : component.edges) {
+          for (Edge.Backtrace backtrace : member.backtraces) {
+            addCandidate(component, new Derivation(member, backtrace, 0, 0));
+          }
+        }
+      }
+      while (ranked.derivations.size() <= rank) {
+        Derivation last = component.lastDerivation;
+        if (last != null) {
+          if (last.backtrace instanceof Edge.UnaryBacktrace || last.backtrace instanceof Edge.BinaryBacktrace)
+            addCandidate(component, new Derivation(last.edge, last.backtrace, last.leftRank + 1, last.rightRank));
+          if (last.backtrace instanceof Edge.BinaryBacktrace)
+            addCandidate(component, new Derivation(last.edge, last.backtrace, last.leftRank, last.rightRank + 1));
+        }
+        component.lastDerivation = component.candidates.poll();
+        if (component.lastDerivation == null) return null;
+        RankedDerivations owner = rankedDerivations.get(component.lastDerivation.edge);
+        owner.derivations.add(component.lastDerivation);
+        List<Derivation> waiting = owner.waiting.remove(owner.derivations.size() - 1);
+        if (waiting != null) {
+          for (Derivation derivation : waiting) {
+            queueCandidate(component, derivation);
+          }
+        }
+      }
+      return ranked.derivations.get(rank);
+    }
+
+    private void addCandidate(Component component, Derivation derivation) {
+      if (!component.seen.add(derivation)) return;
+      queueCandidate(component, derivation);
+    }
+
+    /**
+     * Queues the candidate once its children are known.  It is dropped if a child does not exist, and waits if a child
+     * is in the same component and not built yet.
+     */
+    private void queueCandidate(Component component, Derivation derivation) {
+      Edge.Backtrace backtrace = derivation.backtrace;
+      if (backtrace instanceof Edge.WordBacktrace) {
+        derivation.size = 2;
+      } else if (backtrace instanceof Edge.UnaryBacktrace) {
+        Derivation child = getChildDerivation(component, derivation, ((Edge.UnaryBacktrace) backtrace).getChildEdge(), derivation.leftRank);
+        if (child == null) return;
+        derivation.size = 1 + child.size;
+      } else {
+        Edge.BinaryBacktrace binaryBacktrace = (Edge.BinaryBacktrace) backtrace;
+        Derivation left = getChildDerivation(component, derivation, binaryBacktrace.getLeftEdge(), derivation.leftRank);
+        if (left == null) return;
+        Derivation right = getChildDerivation(component, derivation, binaryBacktrace.getRightEdge(), derivation.rightRank);
+        if (right == null) return;
+        derivation.size = 1 + left.size + right.size;
+      }
+      derivation.sequence = nextSequence++;
+      component.candidates.add(derivation);
+    }
+
+    /**
+     * The child derivation a candidate uses, or null if there is no such derivation or the candidate has to wait for it.
+     */
+    private Derivation getChildDerivation(Component component, Derivation candidate, Edge childEdge, int rank) {
+      RankedDerivations childRanked = getRankedDerivations(childEdge);
+      if (childRanked.component != component) return getKthDerivation(childEdge, rank);
+      if (rank < childRanked.derivations.size()) return childRanked.derivations.get(rank);
+      List<Derivation> waiting = childRanked.waiting.get(rank);
+      if (waiting == null) {
+        waiting = new ArrayList<Derivation>();
+        childRanked.waiting.put(rank, waiting);
+      }
+      waiting.add(candidate);
+      return null;
+    }
+
+    private Tree<String> buildTree(Edge edge, Derivation derivation) {
+      Edge.Backtrace backtrace = derivation.backtrace;
+      if (backtrace instanceof Edge.WordBacktrace) {
+        return new Tree<String>(edge.getLabel(), Collections.singletonList(new Tree<String>(((Edge.WordBacktrace) backtrace).getWord())));
+      }
+      if (backtrace instanceof Edge.UnaryBacktrace) {
+        Edge childEdge = ((Edge.UnaryBacktrace) backtrace).getChildEdge();
+        Tree<String> childTree = buildTree(childEdge, getKthDerivation(childEdge, derivation.leftRank));
+        return new Tree<String>(edge.getLabel(), Collections.singletonList(childTree));
+      }
+      Edge.BinaryBacktrace binaryBacktrace = (Edge.BinaryBacktrace) backtrace;
+      List<Tree<String>> children = new ArrayList<Tree<String>>(2);
+      children.add(buildTree(binaryBacktrace.getLeftEdge(), getKthDerivation(binaryBacktrace.getLeftEdge(), derivation.leftRank)));
+      children.add(buildTree(binaryBacktrace.getRightEdge(), getKthDerivation(binaryBacktrace.getRightEdge(), derivation.rightRank)));
+      return new Tree<String>(edge.getLabel(), children);
+    }
+
+    public ParseForest(Edge goalEdge) {
+      this.goalEdge = goalEdge;
+    }
+  }
+
+  /**
+   * Edges indexed by (symbol id, position).  Each (symbol, start) pair owns an array indexed by end, so finding the
+   * canonical edge for a span is an array probe; the left and right index lists hold the finished edges that start or
+   * end at a position, in the order they were added.
+   */
+  static class Chart {
+    int numSymbols;
+    int length;
+    Edge[][] edgesByStart;
+    Edge[][] edgesByLeftIndex;
+    int[] numEdgesByLeftIndex;
+    Edge[][] edgesByRightIndex;
+    int[] numEdgesByRightIndex;
+
+    private int index(int symbol, int pos) {
+      return pos * numSymbols + symbol;
+    }
+
+    public Edge getEdge(int symbol, int start, int end) {
+      Edge[] edgesByEnd = edgesByStart[index(symbol, start)];
+      return (edgesByEnd == null ? null : edgesByEnd[end]);
+    }
+
+    public void putEdge(Edge edge) {
+      int index = index(edge.getLabelId(), edge.getStart());
+      Edge[] edgesByEnd = edgesByStart[index];
+      if (edgesByEnd == null) {
+        edgesByEnd = new Edge[length + 1];
+        edgesByStart[index] = edgesByEnd;
+      }
+      edgesByEnd[edge.getEnd()] = edge;
+    }
 
     public void addEdge(Edge edge) {
-      CollectionUtils.addToValueList(edgesByLeftIndex, makeLeftIndex(edge), edge);
-      CollectionUtils.addToValueList(edgesByRightIndex, makeRightIndex(edge), edge);
+      int leftIndex = index(edge.getLabelId(), edge.getStart());
+      edgesByLeftIndex[leftIndex] = append(edgesByLeftIndex[leftIndex], numEdgesByLeftIndex[leftIndex]++, edge);
+      int rightIndex = index(edge.getLabelId(), edge.getEnd());
+      edgesByRightIndex[rightIndex] = append(edgesByRightIndex[rightIndex], numEdgesByRightIndex[rightIndex]++, edge);
+    }
+
+    private static Edge[] append(Edge[] edges, int size, Edge edge) {
+      if (edges == null) {
+        edges = new Edge[2];
+      } else if (size == edges.length) {
+        edges = Arrays.copyOf(edges, 2 * size);
+      }
+      edges[size] = edge;
+      return edges;
+    }
+
+    public Edge[] getEdgesByRightIndex(int symbol, int end) {
+      return edgesByRightIndex[index(symbol, end)];
     }
 
-    private Index makeLeftIndex(Edge edge) {
-      return new Index(edge.getLabel(), edge.getStart());
+    public int getNumEdgesByRightIndex(int symbol, int end) {
+      return numEdgesByRightIndex[index(symbol, end)];
     }
 
-    private Index makeRightIndex(Edge edge) {
-      return new Index(edge.getLabel(), edge.getEnd());
+    public Edge[] getEdgesByLeftIndex(int symbol, int start) {
+      return edgesByLeftIndex[index(symbol, start)];
     }
 
-    public List<Edge> getEdgesByRightIndex(String label, int end) {
-      return CollectionUtils.getValueList(edgesByRightIndex, new Index(label, end));
+    public int getNumEdgesByLeftIndex(int symbol, int start) {
+      return numEdgesByLeftIndex[index(symbol, start)];
     }
 
-    public List<Edge> getEdgesByLeftIndex(String label, int start) {
-      return CollectionUtils.getValueList(edgesByLeftIndex, new Index(label, start));
+    public Chart(int numSymbols, int length) {
+      this.numSymbols = numSymbols;
+      this.length = length;
+      int size = numSymbols * (length + 1);
+      edgesByStart = new Edge[size][];
+      edgesByLeftIndex = new Edge[size][];
+      numEdgesByLeftIndex = new int[size];
+      edgesByRightIndex = new Edge[size][];
+      numEdgesByRightIndex = new int[size];
     }
   }
 
@@ -432,29 +1066,61 @@ public class ChartParser {
 
   List<String> sentence;
   Chart chart;
-  LinkedList<Edge> agenda;
-  Map<Edge,Edge> edges;
+  ArrayDeque<Edge> agenda;
+  int emptySymbol;
+  int rootSymbol;
+
+  boolean leftCornerFilter = false;
+  BitSet[] predictedLabels;
+  List<List<Edge>> suppressedEdges;
+  int numProcessedEdges;
+
+  /**
+   * When on, an edge starting at position i is only processed once its label is a left corner of something that could
+   * be built there: ROOT at position 0, or a right sibling of an edge ending at i.  Edges which are not (yet) predicted
+   * wait at their start position and are released if a later edge predicts them, so the parses are the same either
+   * way, but edges which cannot be part of a full parse are never projected.
+   */
+  public void setLeftCornerFilter(boolean leftCornerFilter) {
+    this.leftCornerFilter = leftCornerFilter;
+  }
+
+  /**
+   * The number of edges taken off the agenda while parsing the last sentence.
+   */
+  public int getNumProcessedEdges() {
+    return numProcessedEdges;
+  }
 
   private void initialize() {
-    agenda = new LinkedList<Edge>();
-    chart = new Chart();
-    edges = new HashMap<Edge,Edge>();
+    agenda = new ArrayDeque<Edge>();
+    chart = new Chart(grammar.getNumSymbols(), sentence.size());
+    numProcessedEdges = 0;
+    if (leftCornerFilter) {
+      predictedLabels = new BitSet[sentence.size() + 1];
+      suppressedEdges = new ArrayList<List<Edge>>();
+      for (int pos = 0; pos <= sentence.size(); pos++) {
+        predictedLabels[pos] = new BitSet(grammar.getNumSymbols());
+        suppressedEdges.add(new ArrayList<Edge>());
+      }
+      predictedLabels[0].or(grammar.getLeftCorners(rootSymbol));
+    }
     for (int wordI = 0; wordI < sentence.size(); wordI++) {
       String word = (String) sentence.get(wordI);
-      List<String> tagList = lexicon.getTags(word);
-      if (tagList == null || tagList.isEmpty()) {
+      int[] tagIds = lexicon.getTagIds(word);
+      if (tagIds == null || tagIds.length == 0) {
         System.err.println("Error: unknown word "+word);
         System.exit(0);
       }
-      for (String tag : tagList) {
-        Edge tagEdge = makeEdge(tag, wordI, wordI+1);
+      for (int tagId : tagIds) {
+        Edge tagEdge = makeEdge(tagId, wordI, wordI+1);
         if (verbose) System.err.println("Adding tagging of "+tagEdge+" for "+word);
         discoverEdge(tagEdge);
         tagEdge.addBacktrace(word);
       }
     }
     for (int wordI = 0; wordI <= sentence.size(); wordI++) {
-      Edge emptyEdge = makeEdge("*e*", wordI, wordI);
+      Edge emptyEdge = makeEdge(emptySymbol, wordI, wordI);
       if (verbose) System.err.println("Adding empty edge of "+emptyEdge);
       discoverEdge(emptyEdge);
       emptyEdge.addBacktrace("*e*");
@@ -463,27 +1129,31 @@ public class ChartParser {
 
   private void processEdge(Edge edge) {
     // project unaries
-    for (UnaryRule unaryRule : grammar.getUnaryRulesByChild(edge.getLabel())) {
-      Edge resultEdge = makeEdge(unaryRule.getParent(), edge.getStart(), edge.getEnd());
+    for (UnaryRule unaryRule : grammar.getUnaryRulesByChild(edge.getLabelId())) {
+      Edge resultEdge = makeEdge(unaryRule.parentId, edge.getStart(), edge.getEnd());
       if (verbose) System.err.println("Using unary "+unaryRule+" on "+edge+" to create "+resultEdge);
       discoverEdge(resultEdge);
       resultEdge.addBacktrace(edge);
     }
     // project left siblings
-    for (BinaryRule binaryRule : grammar.getBinaryRulesByRightChild(edge.getLabel())) {
-      List<Edge> leftMatches = chart.getEdgesByRightIndex(binaryRule.getLeftChild(), edge.getStart());
-      for (Edge leftMatch : leftMatches) {
-        Edge resultEdge = makeEdge(binaryRule.getParent(), leftMatch.getStart(), edge.getEnd());
+    for (BinaryRule binaryRule : grammar.getBinaryRulesByRightChild(edge.getLabelId())) {
+      Edge[] leftMatches = chart.getEdgesByRightIndex(binaryRule.leftChildId, edge.getStart());
+      int numLeftMatches = chart.getNumEdgesByRightIndex(binaryRule.leftChildId, edge.getStart());
+      for (int matchI = 0; matchI < numLeftMatches; matchI++) {
+        Edge leftMatch = leftMatches[matchI];
+        Edge resultEdge = makeEdge(binaryRule.parentId, leftMatch.getStart(), edge.getEnd());
         if (verbose) System.err.println("Using binary "+binaryRule+" on "+leftMatch+" and "+edge+" to create "+resultEdge);
         discoverEdge(resultEdge);
         resultEdge.addBacktrace(leftMatch, edge);
       }
     }
     // project right siblings
-    for (BinaryRule binaryRule : grammar.getBinaryRulesByLeftChild(edge.getLabel())) {
-      List<Edge> rightMatches = chart.getEdgesByLeftIndex(binaryRule.getRightChild(), edge.getEnd());
-      for (Edge rightMatch : rightMatches) {
-        Edge resultEdge = makeEdge(binaryRule.getParent(), edge.getStart(), rightMatch.getEnd());
+    for (BinaryRule binaryRule : grammar.getBinaryRulesByLeftChild(edge.getLabelId())) {
+      Edge[] rightMatches = chart.getEdgesByLeftIndex(binaryRule.rightChildId, edge.getEnd());
+      int numRightMatches = chart.getNumEdgesByLeftIndex(binaryRule.rightChildId, edge.getEnd());
+      for (int matchI = 0; matchI < numRightMatches; matchI++) {
+        Edge rightMatch = rightMatches[matchI];
+        Edge resultEdge = makeEdge(binaryRule.parentId, edge.getStart(), rightMatch.getEnd());
         if (verbose) System.err.println("Using binary "+binaryRule+" on "+edge+" and "+rightMatch+" to create "+resultEdge);
         discoverEdge(resultEdge);
         resultEdge.addBacktrace(edge, rightMatch);
@@ -495,15 +1165,42 @@ public class ChartParser {
     if (edge.isDiscovered()) return;
     if (verbose) System.err.println("Discovering edge "+edge);
     edge.setDiscovered();
+    if (leftCornerFilter && !predictedLabels[edge.getStart()].get(edge.getLabelId())) {
+      if (verbose) System.err.println("Suppressing unpredicted edge "+edge);
+      suppressedEdges.get(edge.getStart()).add(edge);
+      return;
+    }
     agenda.addLast(edge);
   }
+
+  private void predict(Edge edge) {
+    BitSet predicted = predictedLabels[edge.getEnd()];
+    int oldCardinality = predicted.cardinality();
+    predicted.or(grammar.getRightSiblingLeftCorners(edge.getLabelId()));
+    if (predicted.cardinality() == oldCardinality) return;
+    List<Edge> suppressed = suppressedEdges.get(edge.getEnd());
+    int numKept = 0;
+    for (Edge suppressedEdge : suppressed) {
+      if (predicted.get(suppressedEdge.getLabelId())) {
+        if (verbose) System.err.println("Releasing predicted edge "+suppressedEdge);
+        agenda.addLast(suppressedEdge);
+      } else {
+        suppressed.set(numKept++, suppressedEdge);
+      }
+    }
+    suppressed.subList(numKept, suppressed.size()).clear();
+  }
   public Edge makeEdge(String label, int start, int end) {
-    Edge edge = new Edge(label, start, end);
-    Edge canoncicalEdge = edges.get(edge);
+    int labelId = grammar.getSymbolId(label);
+    if (labelId < 0) return new Edge(label, labelId, start, end);
+    return makeEdge(labelId, start, end);
+  }
+
+  Edge makeEdge(int labelId, int start, int end) {
+    Edge canoncicalEdge = chart.getEdge(labelId, start, end);
     if (canoncicalEdge == null) {
-      canoncicalEdge = edge;
-      edges.put(canoncicalEdge, canoncicalEdge);
-//      chart.addEdge(edge);
+      canoncicalEdge = new Edge(grammar.getSymbol(labelId), labelId, start, end);
+      chart.putEdge(canoncicalEdge);
     }
     return canoncicalEdge;
   }
@@ -517,19 +1214,42 @@ public class ChartParser {
       if (verbose) System.err.println("Popped edge: "+edge);
       processEdge(edge);
       chart.addEdge(edge);
+      numProcessedEdges++;
       if (verbose) System.err.println("Added to chart: "+edge);
+      if (leftCornerFilter) predict(edge);
+    }
+  }
+
+  /**
+   * The first word of the sentence which the lexicon has no tags for, or null if every word is known.
+   */
+  public String getUnknownWord(List<String> sentence) {
+    for (String word : sentence) {
+      int[] tagIds = lexicon.getTagIds(word);
+      if (tagIds == null || tagIds.length == 0) return word;
     }
+    return null;
   }
 
   public List<Tree<String>> getParses() {
-    Edge goalEdge = edges.get(makeEdge("ROOT", 0, sentence.size()));
-    if (goalEdge == null) return Collections.emptyList();
-    return goalEdge.getTrees();
+    return CollectionUtils.iteratorToList(getParseForest().iterator());
+  }
+
+  /**
+   * The packed forest of all parses of the last sentence; use it to count or enumerate parses without materializing
+   * them all.
+   */
+  public ParseForest getParseForest() {
+    return new ParseForest(makeEdge("ROOT", 0, sentence.size()));
   }
 
   public ChartParser(Lexicon lexicon, Grammar grammar) {
     this.lexicon = lexicon;
     this.grammar = grammar;
+    lexicon.indexTags(grammar);
+    grammar.compile();
+    this.emptySymbol = grammar.getSymbolId("*e*");
+    this.rootSymbol = grammar.getSymbolId("ROOT");
   }
 
   public static Tree<String> cleanTree(Tree<String> tree) {
@@ -540,27 +1260,132 @@ public class ChartParser {
     });
   }
 
+  static void printParses(ChartParser parser, List<String> sentence, boolean bestFirst, long maxParses, PrintWriter out) {
+    parser.parse(sentence);
+    if (verbose) System.err.println("Processed "+parser.getNumProcessedEdges()+" edges");
+    ParseForest forest = parser.getParseForest();
+    BigInteger numParses = forest.countParses();
+    out.println((numParses == null ? "INFINITE" : numParses.toString())+" PARSES");
+    if (numParses == null && (!bestFirst || maxParses == Long.MAX_VALUE)) {
+      out.println("Error: infinitely many parses; list the smallest with -best -max numParses");
+      out.flush();
+      return;
+    }
+    Iterator<Tree<String>> parses = (bestFirst ? forest.bestFirstIterator() : forest.iterator());
+    for (long parseNum = 0; parseNum < maxParses && parses.hasNext(); parseNum++) {
+      Tree<String> parse = parses.next();
+      parse = cleanTree(parse);
+      out.println("PARSE "+(parseNum+1));
+      try {
+        Trees.PennTreeRenderer.render(parse, out);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    out.flush();
+  }
+
+  /**
+   * Parses one sentence per line of the input on a pool of workers.  The lexicon and grammar are compiled once and
+   * shared; each worker thread owns its own ChartParser, since the chart and agenda live in the parser.  Results are
+   * written in input order as soon as every earlier sentence is done, with a bounded number of sentences in flight.
+   */
+  static void parseBatch(final Lexicon lexicon, final Grammar grammar, BufferedReader in, int numThreads, final boolean leftCornerFilter, final boolean bestFirst, final long maxParses, PrintWriter out) throws IOException {
+    // compiles the shared lexicon and grammar before any worker can see them
+    new ChartParser(lexicon, grammar);
+    final ThreadLocal<ChartParser> workerParsers = new ThreadLocal<ChartParser>() {
+      protected ChartParser initialValue() {
+        ChartParser parser = new ChartParser(lexicon, grammar);
+        parser.setLeftCornerFilter(leftCornerFilter);
+        return parser;
+      }
+    };
+    ExecutorService exec = Executors.newFixedThreadPool(Math.max(1, numThreads));
+    ArrayDeque<Future<String>> inFlight = new ArrayDeque<Future<String>>();
+    int maxInFlight = 4 * Math.max(1, numThreads);
+    try {
+      int sentenceNum = 0;
+      for (String line = in.readLine(); line != null; line = in.readLine()) {
+        final String sentenceString = line.trim();
+        if (sentenceString.length() == 0) continue;
+        final int currentSentenceNum = ++sentenceNum;
+        inFlight.addLast(exec.submit(new Callable<String>() {
+          public String call() {
+            ChartParser parser = workerParsers.get();
+            List<String> sentence = Arrays.asList(sentenceString.split("\\s+"));
+            StringWriter result = new StringWriter();
+            PrintWriter resultWriter = new PrintWriter(result);
+            resultWriter.println("SENTENCE "+currentSentenceNum+": "+sentenceString);
+            String unknownWord = parser.getUnknownWord(sentence);
+            if (unknownWord != null) {
+              resultWriter.println("Error: unknown word "+unknownWord);
+            } else {
+              printParses(parser, sentence, bestFirst, maxParses, resultWriter);
+            }
+            resultWriter.flush();
+            return result.toString();
+          }
+        }));
+        while (inFlight.size() >= maxInFlight) {
+          out.print(inFlight.removeFirst().get());
+          out.flush();
+        }
+      }
+      while (!inFlight.isEmpty()) {
+        out.print(inFlight.removeFirst().get());
+        out.flush();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted during batch parsing", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Batch parsing failed", e.getCause());
+    } finally {
+      exec.shutdownNow();
+    }
+  }
+
   public static void main(String[] args) throws Exception {
-    if (args.length != 3 && args.length !=4) {
-      System.err.println("usage: java edu.berkeley.nlp.classical.ChartParser [-verbose] lexiconFileName grammarFileName \"sentence to parse\"");
+    boolean bestFirst = false;
+    boolean leftCornerFilter = false;
+    long maxParses = Long.MAX_VALUE;
+    String batchFileName = null;
+    int numThreads = Runtime.getRuntime().availableProcessors();
+    int argNum = 0;
+    for (; argNum < args.length && args[argNum].startsWith("-"); argNum++) {
+      if (args[argNum].equalsIgnoreCase("-verbose") || args[argNum].equalsIgnoreCase("-v"))
+        verbose = true;
+      else if (args[argNum].equalsIgnoreCase("-best"))
+        bestFirst = true;
+      else if (args[argNum].equalsIgnoreCase("-max"))
+        maxParses = Long.parseLong(args[++argNum]);
+      else if (args[argNum].equalsIgnoreCase("-leftCorner"))
+        leftCornerFilter = true;
+      else if (args[argNum].equalsIgnoreCase("-batch"))
+        batchFileName = args[++argNum];
+      else if (args[argNum].equalsIgnoreCase("-threads"))
+        numThreads = Integer.parseInt(args[++argNum]);
+    }
+    if (args.length - argNum != (batchFileName == null ? 3 : 2)) {
+      System.err.println("usage: java edu.berkeley.nlp.classical.ChartParser [-verbose] [-best] [-max numParses] [-leftCorner] lexiconFileName grammarFileName \"sentence to parse\"");
+      System.err.println("       java edu.berkeley.nlp.classical.ChartParser [options] [-threads numThreads] -batch sentenceFileName|- lexiconFileName grammarFileName");
       System.exit(0);
     }
-    if (args[0].equalsIgnoreCase("-verbose") || args[0].equalsIgnoreCase("-v"))
-      verbose = true;
-    String lexiconFileName = args[args.length-3];
-    String grammarFileName = args[args.length-2];
-    String sentenceString = args[args.length-1];
+    String lexiconFileName = args[argNum];
+    String grammarFileName = args[argNum+1];
     Lexicon lexicon = new Lexicon(new BufferedReader(new FileReader(lexiconFileName)));
     Grammar grammar = new Grammar(new BufferedReader(new FileReader(grammarFileName)));
+    PrintWriter out = new PrintWriter(System.out);
+    if (batchFileName != null) {
+      BufferedReader in = (batchFileName.equals("-") ? new BufferedReader(new InputStreamReader(System.in)) : new BufferedReader(new FileReader(batchFileName)));
+      parseBatch(lexicon, grammar, in, numThreads, leftCornerFilter, bestFirst, maxParses, out);
+      in.close();
+      return;
+    }
+    String sentenceString = args[argNum+2];
     List<String> sentence = Arrays.asList(sentenceString.split("\\s+"));
     ChartParser parser = new ChartParser(lexicon, grammar);
-    parser.parse(sentence);
-    List<Tree<String>> parses = parser.getParses();
-    for (int parseNum = 0; parseNum < parses.size(); parseNum++) {
-      Tree<String> parse = (Tree<String>) parses.get(parseNum);
-      parse = cleanTree(parse);
-      System.out.println("PARSE "+(parseNum+1));
-      System.out.print(Trees.PennTreeRenderer.render(parse));
-    }
+    parser.setLeftCornerFilter(leftCornerFilter);
+    printParses(parser, sentence, bestFirst, maxParses, out);
   }
 }
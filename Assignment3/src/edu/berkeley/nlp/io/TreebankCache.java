@@ -0,0 +1,221 @@
+package edu.berkeley.nlp.io;
+
+import edu.berkeley.nlp.ling.Tree;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * Binary cache of a range of treebank files.  The first read of a range parses the .mrg files and writes the cache as
+ * a side effect; later reads memory-map the cache and rebuild the trees from it without tokenizing any text.  The
+ * cache records a fingerprint of the source files (names, sizes and modification times), and is rebuilt whenever they
+ * change.
+ * <p/>
+ * Format (big-endian): magic, version, fingerprint (long), number of symbols, each symbol as a length-prefixed UTF-8
+ * string, number of trees, number of nodes, the offset of each tree's first node (plus one past the last), then for
+ * every node in preorder its label id (int) and its number of children (short).
+ * <p/>
+ * Caches go in the directory named by the edu.berkeley.nlp.treebankCache system property, by default
+ * berkeley-nlp-treebank-cache under java.io.tmpdir.  If the cache cannot be written the trees are still returned.
+ */
+public class TreebankCache {
+  private static final int MAGIC = 0x54524545;
+  private static final int VERSION = 1;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  public static List<Tree<String>> readTrees(String path, int lowFileNum, int highFileNum) {
+    List<File> files = new PennTreebankReader.TreeCollection(path, lowFileNum, highFileNum).files;
+    long fingerprint = getFingerprint(files);
+    File cacheFile = getCacheFile(path, lowFileNum, highFileNum);
+    List<Tree<String>> trees = read(cacheFile, fingerprint);
+    if (trees != null) return trees;
+    trees = PennTreebankReader.readTreesInParallel(path, lowFileNum, highFileNum);
+    try {
+      write(cacheFile, fingerprint, trees);
+    } catch (IOException e) {
+      System.err.println("Warning: could not write treebank cache " + cacheFile + ": " + e.getMessage());
+    }
+    return trees;
+  }
+
+  static File getCacheFile(String path, int lowFileNum, int highFileNum) {
+    String cacheDir = System.getProperty("edu.berkeley.nlp.treebankCache", new File(System.getProperty("java.io.tmpdir"), "berkeley-nlp-treebank-cache").getPath());
+    String absolutePath = new File(path).getAbsolutePath();
+    return new File(cacheDir, Integer.toHexString(absolutePath.hashCode()) + "-" + lowFileNum + "-" + highFileNum + ".trees");
+  }
+
+  static long getFingerprint(List<File> files) {
+    long fingerprint = 1125899906842597L;
+    for (File file : files) {
+      fingerprint = 31 * fingerprint + file.getPath().hashCode();
+      fingerprint = 31 * fingerprint + file.length();
+      fingerprint = 31 * fingerprint + file.lastModified();
+    }
+    return 31 * fingerprint + files.size();
+  }
+
+  /**
+   * Writes the trees to a temporary file next to the cache file and renames it into place, so a concurrent reader
+   * never sees a partly written cache.
+   */
+  public static void write(File cacheFile, long fingerprint, List<Tree<String>> trees) throws IOException {
+    Map<String, Integer> symbolIds = new HashMap<String, Integer>();
+    List<String> symbols = new ArrayList<String>();
+    int numNodes = 0;
+    int[] treeOffsets = new int[trees.size() + 1];
+    for (int treeNum = 0; treeNum < trees.size(); treeNum++) {
+      treeOffsets[treeNum] = numNodes;
+      numNodes += indexSymbols(trees.get(treeNum), symbolIds, symbols);
+    }
+    treeOffsets[trees.size()] = numNodes;
+
+    File cacheDir = cacheFile.getAbsoluteFile().getParentFile();
+    if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) throw new IOException("Cannot create " + cacheDir);
+    File tempFile = File.createTempFile(cacheFile.getName(), ".tmp", cacheDir);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 16));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(fingerprint);
+      out.writeInt(symbols.size());
+      for (String symbol : symbols) {
+        byte[] bytes = symbol.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+      out.writeInt(trees.size());
+      out.writeInt(numNodes);
+      for (int treeOffset : treeOffsets) {
+        out.writeInt(treeOffset);
+      }
+      for (Tree<String> tree : trees) {
+        writeLabels(tree, symbolIds, out);
+      }
+      for (Tree<String> tree : trees) {
+        writeChildCounts(tree, out);
+      }
+    } finally {
+      out.close();
+    }
+    cacheFile.delete();
+    if (!tempFile.renameTo(cacheFile)) {
+      tempFile.delete();
+      throw new IOException("Cannot rename " + tempFile + " to " + cacheFile);
+    }
+  }
+
+  private static int indexSymbols(Tree<String> tree, Map<String, Integer> symbolIds, List<String> symbols) {
+    if (!symbolIds.containsKey(tree.getLabel())) {
+      symbolIds.put(tree.getLabel(), symbols.size());
+      symbols.add(tree.getLabel());
+    }
+    int numNodes = 1;
+    for (Tree<String> child : tree.getChildren()) {
+      numNodes += indexSymbols(child, symbolIds, symbols);
+    }
+    return numNodes;
+  }
+
+  private static void writeLabels(Tree<String> tree, Map<String, Integer> symbolIds, DataOutputStream out) throws IOException {
+    out.writeInt(symbolIds.get(tree.getLabel()));
+    for (Tree<String> child : tree.getChildren()) {
+      writeLabels(child, symbolIds, out);
+    }
+  }
+
+  private static void writeChildCounts(Tree<String> tree, DataOutputStream out) throws IOException {
+    if (tree.getChildren().size() > Short.MAX_VALUE) throw new IOException("Too many children to cache: " + tree.getChildren().size());
+    out.writeShort(tree.getChildren().size());
+    for (Tree<String> child : tree.getChildren()) {
+      writeChildCounts(child, out);
+    }
+  }
+
+  /**
+   * The trees in the cache file, or null if there is no cache or it was built from different source files.
+   */
+  public static List<Tree<String>> read(File cacheFile, long fingerprint) {
+    if (!cacheFile.isFile()) return null;
+    try {
+      RandomAccessFile file = new RandomAccessFile(cacheFile, "r");
+      try {
+        FileChannel channel = file.getChannel();
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != fingerprint) return null;
+        String[] symbols = new String[buffer.getInt()];
+        for (int symbolId = 0; symbolId < symbols.length; symbolId++) {
+          byte[] bytes = new byte[buffer.getInt()];
+          buffer.get(bytes);
+          // labels read from text are interned, so cached ones are too
+          symbols[symbolId] = new String(bytes, UTF8).intern();
+        }
+        int numTrees = buffer.getInt();
+        int numNodes = buffer.getInt();
+        int[] treeOffsets = new int[numTrees + 1];
+        buffer.asIntBuffer().get(treeOffsets);
+        buffer.position(buffer.position() + 4 * treeOffsets.length);
+        IntBuffer labelIds = buffer.asIntBuffer();
+        buffer.position(buffer.position() + 4 * numNodes);
+        ShortBuffer childCounts = buffer.asShortBuffer();
+        List<Tree<String>> trees = new ArrayList<Tree<String>>(numTrees);
+        for (int treeNum = 0; treeNum < numTrees; treeNum++) {
+          trees.add(buildTree(symbols, labelIds, childCounts, treeOffsets[treeNum], treeOffsets[treeNum + 1]));
+        }
+        return trees;
+      } finally {
+        file.close();
+      }
+    } catch (IOException e) {
+      System.err.println("Warning: ignoring unreadable treebank cache " + cacheFile + ": " + e.getMessage());
+      return null;
+    } catch (RuntimeException e) {
+      System.err.println("Warning: ignoring corrupt treebank cache " + cacheFile + ": " + e);
+      return null;
+    }
+  }
+
+  /**
+   * Rebuilds one tree from its preorder nodes with an explicit stack of the nodes still missing children.  Children
+   * lists have the same shape as the ones the tree readers build: a singleton list above a leaf, an ArrayList
+   * otherwise.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static Tree<String> buildTree(String[] symbols, IntBuffer labelIds, ShortBuffer childCounts, int firstNode, int endNode) {
+    Tree<String>[] openNodes = new Tree[endNode - firstNode];
+    int[] missingChildren = new int[endNode - firstNode];
+    int numOpen = 0;
+    Tree<String> root = null;
+    for (int node = firstNode; node < endNode; node++) {
+      String label = symbols[labelIds.get(node)];
+      int numChildren = childCounts.get(node);
+      Tree<String> tree;
+      if (numChildren == 0) {
+        tree = new Tree<String>(label);
+      } else {
+        tree = new Tree<String>(label, new ArrayList<Tree<String>>(numChildren));
+      }
+      if (numOpen == 0) {
+        root = tree;
+      } else {
+        Tree<String> parent = openNodes[numOpen - 1];
+        parent.getChildren().add(tree);
+        if (--missingChildren[numOpen - 1] == 0) {
+          numOpen--;
+          if (numChildren == 0 && parent.getChildren().size() == 1)
+            parent.setChildren(Collections.singletonList(tree));
+        }
+      }
+      if (numChildren > 0) {
+        openNodes[numOpen] = tree;
+        missingChildren[numOpen] = numChildren;
+        numOpen++;
+      }
+    }
+    return root;
+  }
+}
@@ -12,20 +12,134 @@ import java.util.*;
 public class Tree<L> {
   L label;
   List<Tree<L>> children;
+  // null unless the tree has been frozen
+  FrozenNode<L> frozen;
+
+  /**
+   * The version counter shared by every node of one frozen tree.  Any mutation of any node bumps it, which
+   * invalidates the cached yields of all the nodes at once (a node has no link to its ancestors, whose caches depend
+   * on it).
+   */
+  static class FreezeState<L> {
+    Tree<L> root;
+    int version;
+
+    FreezeState(Tree<L> root) {
+      this.root = root;
+    }
+  }
+
+  /**
+   * The caches of one node of a frozen tree.  The yields and constituents are valid while version matches the shared
+   * state's version; the span is kept up to date eagerly, so reading it never writes.
+   */
+  static class FrozenNode<L> {
+    FreezeState<L> state;
+    int version;
+    List<L> yield;
+    List<L> preTerminalYield;
+    List<Constituent<L>> constituents;
+    int start;
+    int end;
+
+    FrozenNode(FreezeState<L> state) {
+      this.state = state;
+      this.version = state.version;
+    }
+
+    FrozenNode<L> validate() {
+      if (version != state.version) {
+        yield = null;
+        preTerminalYield = null;
+        constituents = null;
+        version = state.version;
+      }
+      return this;
+    }
+  }
 
   public List<Tree<L>> getChildren() {
     return children;
   }
   public void setChildren(List<Tree<L>> children) {
+    if (frozen != null) {
+      frozen.state.version++;
+      for (Tree<L> child : children) {
+        freeze(child, frozen.state);
+      }
+      this.children = Collections.unmodifiableList(children);
+      indexSpans(frozen.state.root, 0);
+      return;
+    }
     this.children = children;
   }
   public L getLabel() {
     return label;
   }
   public void setLabel(L label) {
+    if (frozen != null) frozen.state.version++;
     this.label = label;
   }
 
+  /**
+   * Freezes the tree: its yields, preterminal yields and constituents are computed once and then cached until the
+   * tree changes, and its node spans are computed right away.  Children lists become unmodifiable, so a frozen tree
+   * can only change through setLabel() and setChildren(), which invalidate the caches of the whole tree (and freeze
+   * any new children).  Freezing a tree that is already frozen, or a subtree of one, does nothing.  Returns this tree.
+   * <p/>
+   * The spans are written here and in setChildren() rather than on first use, so a frozen tree that is not mutated
+   * any more can be read from several threads.
+   */
+  public Tree<L> freeze() {
+    if (frozen == null) {
+      freeze(this, new FreezeState<L>(this));
+      indexSpans(this, 0);
+    }
+    return this;
+  }
+
+  public boolean isFrozen() {
+    return frozen != null;
+  }
+
+  private static <L> void freeze(Tree<L> tree, FreezeState<L> state) {
+    tree.frozen = new FrozenNode<L>(state);
+    if (! tree.children.isEmpty()) tree.children = Collections.unmodifiableList(tree.children);
+    for (Tree<L> child : tree.children) {
+      freeze(child, state);
+    }
+  }
+
+  /**
+   * The index of the first word under this node, counting from the start of the tree it was frozen as part of.  Only
+   * frozen trees know their spans.
+   */
+  public int getSpanStart() {
+    return getFrozenNode().start;
+  }
+
+  /**
+   * One past the index of the last word under this node; see getSpanStart().
+   */
+  public int getSpanEnd() {
+    return getFrozenNode().end;
+  }
+
+  private FrozenNode<L> getFrozenNode() {
+    if (frozen == null) throw new IllegalStateException("Spans are only kept for frozen trees");
+    return frozen;
+  }
+
+  private static <L> int indexSpans(Tree<L> tree, int start) {
+    int end = (tree.isLeaf() ? start + 1 : start);
+    for (Tree<L> child : tree.getChildren()) {
+      end = indexSpans(child, end);
+    }
+    tree.frozen.start = start;
+    tree.frozen.end = end;
+    return end;
+  }
+
   public boolean isLeaf() {
     return getChildren().isEmpty();
   }
@@ -36,7 +150,19 @@ public class Tree<L> {
     return ! (isLeaf() || isPreTerminal());
   }
 
+  /**
+   * The leaf labels, left to right.  For a frozen tree this is a cached, unmodifiable list.
+   */
   public List<L> getYield() {
+    if (frozen != null) {
+      FrozenNode<L> caches = frozen.validate();
+      if (caches.yield == null) {
+        List<L> yield = new ArrayList<L>();
+        appendYield(this, yield);
+        caches.yield = Collections.unmodifiableList(yield);
+      }
+      return caches.yield;
+    }
     List<L> yield = new ArrayList<L>();
     appendYield(this, yield);
     return yield;
@@ -52,7 +178,19 @@ public class Tree<L> {
     }
   }
 
+  /**
+   * The preterminal labels, left to right.  For a frozen tree this is a cached, unmodifiable list.
+   */
   public List<L> getPreTerminalYield() {
+    if (frozen != null) {
+      FrozenNode<L> caches = frozen.validate();
+      if (caches.preTerminalYield == null) {
+        List<L> yield = new ArrayList<L>();
+        appendPreTerminalYield(this, yield);
+        caches.preTerminalYield = Collections.unmodifiableList(yield);
+      }
+      return caches.preTerminalYield;
+    }
     List<L> yield = new ArrayList<L>();
     appendPreTerminalYield(this, yield);
     return yield;
@@ -94,7 +232,19 @@ public class Tree<L> {
     return getPreOrderTraversal();
   }
 
+  /**
+   * For a frozen tree this is a cached, unmodifiable list.
+   */
   public List<Constituent<L>> toConstituentList() {
+    if (frozen != null) {
+      FrozenNode<L> caches = frozen.validate();
+      if (caches.constituents == null) {
+        List<Constituent<L>> constituentList = new ArrayList<Constituent<L>>();
+        toConstituentCollectionHelper(this, 0, constituentList);
+        caches.constituents = Collections.unmodifiableList(constituentList);
+      }
+      return caches.constituents;
+    }
     List<Constituent<L>> constituentList = new ArrayList<Constituent<L>>();
     toConstituentCollectionHelper(this, 0, constituentList);
     return constituentList;
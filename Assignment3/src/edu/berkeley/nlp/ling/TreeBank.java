@@ -0,0 +1,273 @@
+package edu.berkeley.nlp.ling;
+
+import edu.berkeley.nlp.util.Indexer;
+
+import java.util.*;
+
+/**
+ * An arena of trees stored as parallel int arrays rather than as Tree objects.  Every node is an int id; for each
+ * node the arena keeps its label id, its first child, its next sibling and the span [start, end) of the yield it
+ * covers, so a node costs five ints instead of a Tree, a children list and its backing array.  Node ids of one tree are
+ * contiguous and in preorder, and leaves have no first child.
+ * <p/>
+ * Code written against Tree can still run over an arena: asTrees() is a list view that builds each Tree only when it
+ * is asked for, and transform() pushes every tree through a TreeTransformer (or a tree annotator) into a new arena one
+ * tree at a time.  Code that only needs labels and spans, like the packed evaluator, reads the arrays directly.
+ * <p/>
+ * An arena is filled by one thread; once filled, it can be read by any number of threads.
+ */
+public class TreeBank<L> {
+  public static final int NONE = -1;
+
+  Indexer<L> labels = new Indexer<L>();
+  int[] labelIds;
+  int[] firstChildren;
+  int[] nextSiblings;
+  int[] starts;
+  int[] ends;
+  int numNodes;
+  int[] roots;
+  int numTrees;
+
+  public int size() {
+    return numTrees;
+  }
+
+  public int getNumNodes() {
+    return numNodes;
+  }
+
+  public int getRoot(int treeNum) {
+    if (treeNum >= numTrees) throw new IndexOutOfBoundsException("Tree " + treeNum + " of " + numTrees);
+    return roots[treeNum];
+  }
+
+  public int getNumLabels() {
+    return labels.size();
+  }
+
+  /**
+   * The label with the given id.  Ids are dense, in order of first appearance.
+   */
+  public L getSymbol(int labelId) {
+    return labels.get(labelId);
+  }
+
+  /**
+   * The id of the given label, or -1 if no node in the arena has it.
+   */
+  public int getSymbolId(L label) {
+    return labels.indexOf(label);
+  }
+
+  public L getLabel(int node) {
+    return labels.get(labelIds[node]);
+  }
+
+  public int getLabelId(int node) {
+    return labelIds[node];
+  }
+
+  public int getFirstChild(int node) {
+    return firstChildren[node];
+  }
+
+  public int getNextSibling(int node) {
+    return nextSiblings[node];
+  }
+
+  public int getStart(int node) {
+    return starts[node];
+  }
+
+  public int getEnd(int node) {
+    return ends[node];
+  }
+
+  public int getYieldLength(int node) {
+    return ends[node] - starts[node];
+  }
+
+  public int getNumChildren(int node) {
+    int numChildren = 0;
+    for (int child = firstChildren[node]; child != NONE; child = nextSiblings[child]) {
+      numChildren++;
+    }
+    return numChildren;
+  }
+
+  public boolean isLeaf(int node) {
+    return firstChildren[node] == NONE;
+  }
+
+  public boolean isPreTerminal(int node) {
+    int child = firstChildren[node];
+    return child != NONE && nextSiblings[child] == NONE && firstChildren[child] == NONE;
+  }
+
+  public boolean isPhrasal(int node) {
+    return ! (isLeaf(node) || isPreTerminal(node));
+  }
+
+  /**
+   * The leaf labels under the node, read off the node's preorder range without building any Tree.
+   */
+  public List<L> getYield(int node) {
+    List<L> yield = new ArrayList<L>(getYieldLength(node));
+    int end = nodeAfter(node);
+    for (int descendant = node; descendant < end; descendant++) {
+      if (isLeaf(descendant)) yield.add(getLabel(descendant));
+    }
+    return yield;
+  }
+
+  public List<L> getPreTerminalYield(int node) {
+    List<L> yield = new ArrayList<L>(getYieldLength(node));
+    int end = nodeAfter(node);
+    for (int descendant = node; descendant < end; descendant++) {
+      if (isPreTerminal(descendant)) yield.add(getLabel(descendant));
+    }
+    return yield;
+  }
+
+  /**
+   * One past the last node of the subtree rooted at the node: its subtree is the preorder range [node, nodeAfter), and
+   * its last node is found by following last children down.
+   */
+  int nodeAfter(int node) {
+    int last = node;
+    while (firstChildren[last] != NONE) {
+      last = firstChildren[last];
+      while (nextSiblings[last] != NONE) {
+        last = nextSiblings[last];
+      }
+    }
+    return last + 1;
+  }
+
+  /**
+   * Adds a copy of the tree to the arena and returns its tree number.
+   */
+  public int addTree(Tree<L> tree) {
+    if (roots == null) {
+      roots = new int[16];
+      labelIds = new int[256];
+      firstChildren = new int[256];
+      nextSiblings = new int[256];
+      starts = new int[256];
+      ends = new int[256];
+    }
+    if (numTrees == roots.length) roots = Arrays.copyOf(roots, 2 * numTrees);
+    roots[numTrees] = addNode(tree, 0);
+    return numTrees++;
+  }
+
+  private int addNode(Tree<L> tree, int start) {
+    if (numNodes == labelIds.length) grow();
+    int node = numNodes++;
+    labelIds[node] = labels.addAndGetIndex(tree.getLabel());
+    firstChildren[node] = NONE;
+    nextSiblings[node] = NONE;
+    int end = (tree.isLeaf() ? start + 1 : start);
+    int previousChild = NONE;
+    for (Tree<L> child : tree.getChildren()) {
+      int childNode = addNode(child, end);
+      if (previousChild == NONE)
+        firstChildren[node] = childNode;
+      else
+        nextSiblings[previousChild] = childNode;
+      previousChild = childNode;
+      end = ends[childNode];
+    }
+    starts[node] = start;
+    ends[node] = end;
+    return node;
+  }
+
+  private void grow() {
+    int capacity = 2 * labelIds.length;
+    labelIds = Arrays.copyOf(labelIds, capacity);
+    firstChildren = Arrays.copyOf(firstChildren, capacity);
+    nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+    starts = Arrays.copyOf(starts, capacity);
+    ends = Arrays.copyOf(ends, capacity);
+  }
+
+  /**
+   * Shrinks the arrays to the nodes actually stored, once the arena is filled.
+   */
+  public void trimToSize() {
+    if (roots == null) return;
+    roots = Arrays.copyOf(roots, numTrees);
+    labelIds = Arrays.copyOf(labelIds, numNodes);
+    firstChildren = Arrays.copyOf(firstChildren, numNodes);
+    nextSiblings = Arrays.copyOf(nextSiblings, numNodes);
+    starts = Arrays.copyOf(starts, numNodes);
+    ends = Arrays.copyOf(ends, numNodes);
+  }
+
+  /**
+   * Builds the tree with the given number as Tree objects.  Children lists have the same shape as the ones the tree
+   * readers build: a singleton list above a leaf, an ArrayList otherwise.
+   */
+  public Tree<L> getTree(int treeNum) {
+    return toTree(getRoot(treeNum));
+  }
+
+  /**
+   * Builds the subtree rooted at the node as Tree objects.
+   */
+  public Tree<L> toTree(int node) {
+    L label = getLabel(node);
+    if (isLeaf(node)) return new Tree<L>(label);
+    if (isPreTerminal(node))
+      return new Tree<L>(label, Collections.singletonList(toTree(firstChildren[node])));
+    List<Tree<L>> children = new ArrayList<Tree<L>>(getNumChildren(node));
+    for (int child = firstChildren[node]; child != NONE; child = nextSiblings[child]) {
+      children.add(toTree(child));
+    }
+    return new Tree<L>(label, children);
+  }
+
+  /**
+   * A read-only list view of the arena's trees.  Each get() builds a fresh Tree, so callers which only pass over the
+   * trees hold one tree at a time; changing a returned tree does not change the arena.  A caller which passes over the
+   * trees several times rebuilds them on every pass, and should copy them into a list first.
+   */
+  public List<Tree<L>> asTrees() {
+    return new AbstractList<Tree<L>>() {
+      public Tree<L> get(int treeNum) {
+        return getTree(treeNum);
+      }
+
+      public int size() {
+        return numTrees;
+      }
+    };
+  }
+
+  /**
+   * A new arena holding the transformed trees.  Trees are built, transformed and stored one at a time, so the
+   * transformer can be any Tree-based one (normalizers, annotators, binarizers) without ever materializing the whole
+   * treebank.  Trees the transformer maps to null are dropped.
+   */
+  public TreeBank<L> transform(Trees.TreeTransformer<L> treeTransformer) {
+    TreeBank<L> transformed = new TreeBank<L>();
+    for (int treeNum = 0; treeNum < numTrees; treeNum++) {
+      Tree<L> transformedTree = treeTransformer.transformTree(getTree(treeNum));
+      if (transformedTree != null) transformed.addTree(transformedTree);
+    }
+    transformed.trimToSize();
+    return transformed;
+  }
+
+  public TreeBank() {
+  }
+
+  public TreeBank(Iterable<Tree<L>> trees) {
+    for (Tree<L> tree : trees) {
+      addTree(tree);
+    }
+    trimToSize();
+  }
+}
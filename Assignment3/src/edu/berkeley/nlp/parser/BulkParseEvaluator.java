@@ -0,0 +1,274 @@
+package edu.berkeley.nlp.parser;
+
+import edu.berkeley.nlp.io.PennTreebankReader;
+import edu.berkeley.nlp.ling.Tree;
+import edu.berkeley.nlp.ling.TreeBank;
+import edu.berkeley.nlp.ling.Trees;
+import edu.berkeley.nlp.parser.EnglishPennTreebankParseEvaluator.EvalAccumulator;
+import edu.berkeley.nlp.util.CommandLineUtils;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Scores a file of guessed trees against a gold treebank without running a parser.  The guesses are bracketed trees in
+ * the order of the gold trees (after normalization and the length cutoff, as PCFGParserTester -writeGuesses writes
+ * them).  Sentences are scored in parallel chunks with the same semantics as testParser, and the totals are reported
+ * overall, by sentence length bucket and by label.
+ * <p/>
+ * Usage: java edu.berkeley.nlp.parser.BulkParseEvaluator -guess guesses.txt [-path treebank] [-low 2300] [-high 2399]
+ * [-maxLength 40] [-threads N] [-chunkSize 500] [-buckets 10,20,30,40] [-sentences perSentence.csv]
+ */
+public class BulkParseEvaluator {
+
+  static class ChunkResult {
+    EvalAccumulator totals = new EvalAccumulator(true);
+    EvalAccumulator[] byBucket;
+    StringBuilder sentenceLines = new StringBuilder();
+  }
+
+  // shared by every chunk; its label table is the only shared state, and that is thread-safe
+  EnglishPennTreebankParseEvaluator.PackedLabeledConstituentEval<String> eval = new EnglishPennTreebankParseEvaluator.PackedLabeledConstituentEval<String>(Collections.singleton("ROOT"), new HashSet<String>(Arrays.asList(new String[]{"''", "``", ".", ":", ","})));
+  int[] bucketBounds;
+  boolean writeSentences;
+
+  int getBucket(int length) {
+    for (int bucket = 0; bucket < bucketBounds.length; bucket++) {
+      if (length <= bucketBounds[bucket]) return bucket;
+    }
+    return bucketBounds.length;
+  }
+
+  String getBucketName(int bucket) {
+    int low = (bucket == 0 ? 1 : bucketBounds[bucket - 1] + 1);
+    if (bucket == bucketBounds.length) return ">" + (low - 1);
+    return low + "-" + bucketBounds[bucket];
+  }
+
+  ChunkResult evaluateChunk(TreeBank<String> guesses, TreeBank<String> golds, int firstSentence) {
+    ChunkResult result = new ChunkResult();
+    result.byBucket = new EvalAccumulator[bucketBounds.length + 1];
+    for (int bucket = 0; bucket < result.byBucket.length; bucket++) {
+      result.byBucket[bucket] = new EvalAccumulator();
+    }
+    for (int i = 0; i < golds.size(); i++) {
+      int goldRoot = golds.getRoot(i);
+      int length = golds.getYieldLength(goldRoot);
+      EvalAccumulator sentenceScores = new EvalAccumulator(true);
+      eval.evaluate(guesses, guesses.getRoot(i), golds, goldRoot, sentenceScores);
+      result.totals.merge(sentenceScores);
+      result.byBucket[getBucket(length)].merge(sentenceScores);
+      if (writeSentences) {
+        result.sentenceLines.append(String.format(Locale.ROOT, "%d,%d,%d,%d,%d,%.4f,%.4f,%.4f,%d\n", firstSentence + i + 1, length,
+            sentenceScores.getCorrectEvents(), sentenceScores.getGuessedEvents(), sentenceScores.getGoldEvents(),
+            sentenceScores.getPrecision(), sentenceScores.getRecall(), sentenceScores.getF1(), sentenceScores.getExact()));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Scores the guesses against the gold trees, chunkSize sentences per task, keeping a bounded number of chunks in
+   * flight and merging them in input order.  Queued chunks are held as tree arenas rather than Tree objects.
+   */
+  public ChunkResult evaluate(Iterator<Tree<String>> guesses, Iterator<Tree<String>> golds, int numThreads, int chunkSize, Writer sentenceWriter) throws IOException {
+    writeSentences = (sentenceWriter != null);
+    if (writeSentences) sentenceWriter.write("sentence,length,correct,guessed,gold,precision,recall,f1,exact\n");
+    ChunkResult totals = new ChunkResult();
+    totals.byBucket = new EvalAccumulator[bucketBounds.length + 1];
+    for (int bucket = 0; bucket < totals.byBucket.length; bucket++) {
+      totals.byBucket[bucket] = new EvalAccumulator();
+    }
+    ExecutorService exec = Executors.newFixedThreadPool(Math.max(1, numThreads));
+    ArrayDeque<Future<ChunkResult>> inFlight = new ArrayDeque<Future<ChunkResult>>();
+    try {
+      int numSentences = 0;
+      while (golds.hasNext()) {
+        final TreeBank<String> goldChunk = new TreeBank<String>();
+        final TreeBank<String> guessChunk = new TreeBank<String>();
+        while (golds.hasNext() && goldChunk.size() < chunkSize) {
+          if (!guesses.hasNext())
+            throw new RuntimeException("Guess file ends after " + (numSentences + guessChunk.size()) + " trees, but the gold treebank has more");
+          goldChunk.addTree(golds.next());
+          guessChunk.addTree(guesses.next());
+        }
+        goldChunk.trimToSize();
+        guessChunk.trimToSize();
+        final int firstSentence = numSentences;
+        numSentences += goldChunk.size();
+        inFlight.addLast(exec.submit(new Callable<ChunkResult>() {
+          public ChunkResult call() {
+            return evaluateChunk(guessChunk, goldChunk, firstSentence);
+          }
+        }));
+        while (inFlight.size() >= 2 * Math.max(1, numThreads)) {
+          mergeChunk(totals, inFlight.removeFirst().get(), sentenceWriter);
+        }
+      }
+      while (!inFlight.isEmpty()) {
+        mergeChunk(totals, inFlight.removeFirst().get(), sentenceWriter);
+      }
+      if (guesses.hasNext())
+        throw new RuntimeException("Guess file has more trees than the " + numSentences + " gold trees");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted during evaluation", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Evaluation failed", e.getCause());
+    } finally {
+      exec.shutdownNow();
+    }
+    return totals;
+  }
+
+  private static void mergeChunk(ChunkResult totals, ChunkResult chunk, Writer sentenceWriter) throws IOException {
+    totals.totals.merge(chunk.totals);
+    for (int bucket = 0; bucket < totals.byBucket.length; bucket++) {
+      totals.byBucket[bucket].merge(chunk.byBucket[bucket]);
+    }
+    if (sentenceWriter != null) sentenceWriter.write(chunk.sentenceLines.toString());
+  }
+
+  public void display(ChunkResult result, PrintWriter out) {
+    result.totals.display(" [Average] ", out);
+    out.println();
+    out.println("By length:");
+    out.println(String.format("%-8s %9s %7s %7s %7s %7s", "length", "sentences", "P", "R", "F1", "EX"));
+    for (int bucket = 0; bucket < result.byBucket.length; bucket++) {
+      EvalAccumulator scores = result.byBucket[bucket];
+      if (scores.getTotal() == 0) continue;
+      out.println(String.format("%-8s %9d %7.2f %7.2f %7.2f %7.2f", getBucketName(bucket), scores.getTotal(),
+          100 * scores.getPrecision(), 100 * scores.getRecall(), 100 * scores.getF1(), 100.0 * scores.getExact() / scores.getTotal()));
+    }
+    out.println();
+    out.println("By label:");
+    out.println(String.format("%-10s %8s %8s %8s %7s %7s %7s", "label", "gold", "guessed", "correct", "P", "R", "F1"));
+    final EvalAccumulator totals = result.totals;
+    List<Integer> labelIds = new ArrayList<Integer>();
+    for (int labelId = 0; labelId < eval.getNumLabels(); labelId++) {
+      if (totals.getGoldEvents(labelId) > 0 || totals.getGuessedEvents(labelId) > 0)
+        labelIds.add(labelId);
+    }
+    Collections.sort(labelIds, new Comparator<Integer>() {
+      public int compare(Integer o1, Integer o2) {
+        return totals.getGoldEvents(o2) - totals.getGoldEvents(o1);
+      }
+    });
+    for (int labelId : labelIds) {
+      int correct = totals.getCorrectEvents(labelId);
+      int guessed = totals.getGuessedEvents(labelId);
+      int gold = totals.getGoldEvents(labelId);
+      double precision = (guessed > 0 ? correct / (double) guessed : 1.0);
+      double recall = (gold > 0 ? correct / (double) gold : 1.0);
+      double f1 = (precision > 0.0 && recall > 0.0 ? 2.0 / (1.0 / precision + 1.0 / recall) : 0.0);
+      out.println(String.format("%-10s %8d %8d %8d %7.2f %7.2f %7.2f", eval.getLabel(labelId), gold, guessed, correct,
+          100 * precision, 100 * recall, 100 * f1));
+    }
+    out.flush();
+  }
+
+  public BulkParseEvaluator(int[] bucketBounds) {
+    this.bucketBounds = bucketBounds;
+  }
+
+  /**
+   * The normalized gold trees of the given files whose yield is at most maxLength, read lazily.
+   */
+  static Iterator<Tree<String>> readGoldTrees(String basePath, int low, int high, final int maxLength) {
+    final Iterator<Tree<String>> treeIterator = PennTreebankReader.readTrees(basePath, low, high).iterator();
+    final Trees.TreeTransformer<String> treeTransformer = new Trees.StandardTreeNormalizer(true);
+    return new Iterator<Tree<String>>() {
+      Tree<String> nextTree = findNext();
+
+      private Tree<String> findNext() {
+        while (treeIterator.hasNext()) {
+          Tree<String> normalizedTree = treeTransformer.transformTree(treeIterator.next());
+          if (normalizedTree.getYield().size() <= maxLength)
+            return normalizedTree;
+        }
+        return null;
+      }
+
+      public boolean hasNext() {
+        return nextTree != null;
+      }
+
+      public Tree<String> next() {
+        if (nextTree == null) throw new NoSuchElementException();
+        Tree<String> tree = nextTree;
+        nextTree = findNext();
+        return tree;
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  public static void main(String[] args) throws IOException {
+    Map<String, String> argMap = CommandLineUtils.simpleCommandLineParser(args);
+
+    String guessPath = null;
+    String basePath = ".";
+    int low = 2300;
+    int high = 2399;
+    int maxLength = 40;
+    int numThreads = Runtime.getRuntime().availableProcessors();
+    int chunkSize = 500;
+    int[] bucketBounds = {10, 20, 30, 40};
+    String sentencesPath = null;
+
+    if (argMap.containsKey("-guess")) {
+      guessPath = argMap.get("-guess");
+    }
+    if (argMap.containsKey("-path")) {
+      basePath = argMap.get("-path");
+    }
+    if (argMap.containsKey("-low")) {
+      low = Integer.parseInt(argMap.get("-low"));
+    }
+    if (argMap.containsKey("-high")) {
+      high = Integer.parseInt(argMap.get("-high"));
+    }
+    if (argMap.containsKey("-maxLength")) {
+      maxLength = Integer.parseInt(argMap.get("-maxLength"));
+    }
+    if (argMap.containsKey("-threads")) {
+      numThreads = Integer.parseInt(argMap.get("-threads"));
+    }
+    if (argMap.containsKey("-chunkSize")) {
+      chunkSize = Integer.parseInt(argMap.get("-chunkSize"));
+    }
+    if (argMap.containsKey("-buckets")) {
+      String[] bounds = argMap.get("-buckets").split(",");
+      bucketBounds = new int[bounds.length];
+      for (int i = 0; i < bounds.length; i++) {
+        bucketBounds[i] = Integer.parseInt(bounds[i].trim());
+      }
+    }
+    if (argMap.containsKey("-sentences")) {
+      sentencesPath = argMap.get("-sentences");
+    }
+    if (guessPath == null) {
+      System.err.println("usage: java edu.berkeley.nlp.parser.BulkParseEvaluator -guess guessFile [-path treebankPath] [-low 2300] [-high 2399] [-maxLength 40] [-threads N] [-chunkSize 500] [-buckets 10,20,30,40] [-sentences perSentence.csv]");
+      System.exit(0);
+    }
+
+    System.out.println("Scoring " + guessPath + " against files " + low + "-" + high + " of " + basePath + " (length <= " + maxLength + ")");
+    BulkParseEvaluator bulkEvaluator = new BulkParseEvaluator(bucketBounds);
+    BufferedReader guessReader = new BufferedReader(new FileReader(guessPath));
+    Writer sentenceWriter = (sentencesPath != null ? new FileWriter(sentencesPath) : null);
+    ChunkResult result = bulkEvaluator.evaluate(new Trees.FastPennTreeReader(guessReader), readGoldTrees(basePath, low, high, maxLength), numThreads, chunkSize, sentenceWriter);
+    guessReader.close();
+    if (sentenceWriter != null) sentenceWriter.close();
+    System.out.println("Scored " + result.totals.getTotal() + " sentences");
+    bulkEvaluator.display(result, new PrintWriter(System.out, true));
+  }
+}
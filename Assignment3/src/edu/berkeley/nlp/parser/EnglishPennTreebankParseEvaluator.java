@@ -1,9 +1,11 @@
 package edu.berkeley.nlp.parser;
 
 import edu.berkeley.nlp.ling.Tree;
+import edu.berkeley.nlp.ling.TreeBank;
 import edu.berkeley.nlp.ling.Trees;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.io.PrintWriter;
 import java.io.StringReader;
 
@@ -26,6 +28,18 @@ public class EnglishPennTreebankParseEvaluator<L> {
 
     abstract Set<Object> makeObjects(Tree<L> tree);
 
+    public int getCorrectEvents() {
+      return correctEvents;
+    }
+
+    public int getGuessedEvents() {
+      return guessedEvents;
+    }
+
+    public int getGoldEvents() {
+      return goldEvents;
+    }
+
     public void evaluate(Tree<L> guess, Tree<L> gold) {
       evaluate(guess, gold, new PrintWriter(System.out, true));
     }
@@ -59,15 +73,7 @@ public class EnglishPennTreebankParseEvaluator<L> {
     }
 
     private void displayPRF(String prefixStr, int correct, int guessed, int gold, int exact, int total, PrintWriter pw) {
-      double precision = (guessed > 0 ? correct / (double) guessed : 1.0);
-      double recall = (gold > 0 ? correct / (double) gold : 1.0);
-      double f1 = (precision > 0.0 && recall > 0.0 ? 2.0 / (1.0 / precision + 1.0 / recall) : 0.0);
-
-      double exactMatch = exact / (double) total;
-
-      String displayStr = " P: " + ((int) (precision * 10000)) / 100.0 + " R: " + ((int) (recall * 10000)) / 100.0 + " F1: " + ((int) (f1 * 10000)) / 100.0 + " EX: "+((int) (exactMatch * 10000)) / 100.0 ;
-
-      pw.println(prefixStr+displayStr);
+      pw.println(prefixStr+formatPRF(correct, guessed, gold, exact, total));
     }
 
     public void display(boolean verbose) {
@@ -79,6 +85,145 @@ public class EnglishPennTreebankParseEvaluator<L> {
     }
   }
 
+  static String formatPRF(int correct, int guessed, int gold, int exact, int total) {
+    double precision = (guessed > 0 ? correct / (double) guessed : 1.0);
+    double recall = (gold > 0 ? correct / (double) gold : 1.0);
+    double f1 = (precision > 0.0 && recall > 0.0 ? 2.0 / (1.0 / precision + 1.0 / recall) : 0.0);
+
+    double exactMatch = exact / (double) total;
+
+    return " P: " + ((int) (precision * 10000)) / 100.0 + " R: " + ((int) (recall * 10000)) / 100.0 + " F1: " + ((int) (f1 * 10000)) / 100.0 + " EX: "+((int) (exactMatch * 10000)) / 100.0 ;
+  }
+
+  /**
+   * Constituent and exact-match counts over some set of sentences, optionally also broken down by label id.  An
+   * accumulator belongs to one thread; accumulators filled on different threads are combined with merge(), so
+   * parallel evaluation shares no state.
+   */
+  public static class EvalAccumulator {
+    int correctEvents = 0;
+    int guessedEvents = 0;
+    int goldEvents = 0;
+    int exact = 0;
+    int total = 0;
+
+    boolean trackLabels;
+    int[] correctByLabel = new int[0];
+    int[] guessedByLabel = new int[0];
+    int[] goldByLabel = new int[0];
+
+    public EvalAccumulator() {
+      this(false);
+    }
+
+    public EvalAccumulator(boolean trackLabels) {
+      this.trackLabels = trackLabels;
+    }
+
+    public boolean isTrackingLabels() {
+      return trackLabels;
+    }
+
+    private static int[] increment(int[] counts, int labelId, int count) {
+      if (labelId >= counts.length)
+        counts = Arrays.copyOf(counts, Math.max(labelId + 1, 2 * counts.length));
+      counts[labelId] += count;
+      return counts;
+    }
+
+    void addCorrectLabel(int labelId) {
+      correctByLabel = increment(correctByLabel, labelId, 1);
+    }
+
+    void addGuessedLabel(int labelId) {
+      guessedByLabel = increment(guessedByLabel, labelId, 1);
+    }
+
+    void addGoldLabel(int labelId) {
+      goldByLabel = increment(goldByLabel, labelId, 1);
+    }
+
+    public int getCorrectEvents(int labelId) {
+      return (labelId < correctByLabel.length ? correctByLabel[labelId] : 0);
+    }
+
+    public int getGuessedEvents(int labelId) {
+      return (labelId < guessedByLabel.length ? guessedByLabel[labelId] : 0);
+    }
+
+    public int getGoldEvents(int labelId) {
+      return (labelId < goldByLabel.length ? goldByLabel[labelId] : 0);
+    }
+
+    public void add(int correct, int guessed, int gold) {
+      correctEvents += correct;
+      guessedEvents += guessed;
+      goldEvents += gold;
+      if (correct == guessed && correct == gold)
+        exact++;
+      total++;
+    }
+
+    public void merge(EvalAccumulator accumulator) {
+      correctEvents += accumulator.correctEvents;
+      guessedEvents += accumulator.guessedEvents;
+      goldEvents += accumulator.goldEvents;
+      exact += accumulator.exact;
+      total += accumulator.total;
+      if (!trackLabels) return;
+      for (int labelId = 0; labelId < accumulator.correctByLabel.length; labelId++) {
+        if (accumulator.correctByLabel[labelId] > 0)
+          correctByLabel = increment(correctByLabel, labelId, accumulator.correctByLabel[labelId]);
+      }
+      for (int labelId = 0; labelId < accumulator.guessedByLabel.length; labelId++) {
+        if (accumulator.guessedByLabel[labelId] > 0)
+          guessedByLabel = increment(guessedByLabel, labelId, accumulator.guessedByLabel[labelId]);
+      }
+      for (int labelId = 0; labelId < accumulator.goldByLabel.length; labelId++) {
+        if (accumulator.goldByLabel[labelId] > 0)
+          goldByLabel = increment(goldByLabel, labelId, accumulator.goldByLabel[labelId]);
+      }
+    }
+
+    public int getCorrectEvents() {
+      return correctEvents;
+    }
+
+    public int getGuessedEvents() {
+      return guessedEvents;
+    }
+
+    public int getGoldEvents() {
+      return goldEvents;
+    }
+
+    public int getExact() {
+      return exact;
+    }
+
+    public int getTotal() {
+      return total;
+    }
+
+    public double getPrecision() {
+      return (guessedEvents > 0 ? correctEvents / (double) guessedEvents : 1.0);
+    }
+
+    public double getRecall() {
+      return (goldEvents > 0 ? correctEvents / (double) goldEvents : 1.0);
+    }
+
+    public double getF1() {
+      double precision = getPrecision();
+      double recall = getRecall();
+      return (precision > 0.0 && recall > 0.0 ? 2.0 / (1.0 / precision + 1.0 / recall) : 0.0);
+    }
+
+    public void display(String prefixStr, PrintWriter pw) {
+      pw.println(prefixStr+formatPRF(correctEvents, guessedEvents, goldEvents, exact, total));
+    }
+  }
+
   static class LabeledConstituent<L> {
     L label;
     int start;
@@ -179,11 +324,219 @@ public class EnglishPennTreebankParseEvaluator<L> {
 
   }
 
+  /**
+   * Same scores as LabeledConstituentEval, without copying the trees or building sets of objects.  Each constituent is
+   * packed into a long (label id, start, end); the guessed and gold constituents are sorted in reusable per-thread
+   * arrays and intersected by merging.  Like LabeledConstituentEval, repeated constituents count once unless
+   * countDuplicates is set, in which case the multiset intersection is used instead.  Safe to share between threads,
+   * each evaluating into its own EvalAccumulator.
+   */
+  public static class PackedLabeledConstituentEval<L> {
+    private static final int POSITION_BITS = 20;
+    private static final long POSITION_MASK = (1L << POSITION_BITS) - 1;
+
+    static class ConstituentBuffer {
+      long[] constituents = new long[64];
+      int size;
+
+      void add(long constituent) {
+        if (size == constituents.length)
+          constituents = Arrays.copyOf(constituents, 2 * size);
+        constituents[size++] = constituent;
+      }
+    }
+
+    Set<L> labelsToIgnore;
+    Set<L> punctuationTags;
+    boolean countDuplicates;
+    Map<L, Integer> labelIds = new ConcurrentHashMap<L, Integer>();
+    List<L> labels = new ArrayList<L>();
+    ThreadLocal<ConstituentBuffer[]> buffers = new ThreadLocal<ConstituentBuffer[]>() {
+      protected ConstituentBuffer[] initialValue() {
+        return new ConstituentBuffer[]{new ConstituentBuffer(), new ConstituentBuffer()};
+      }
+    };
+
+    public static int getLabelId(long constituent) {
+      return (int) (constituent >>> (2 * POSITION_BITS));
+    }
+
+    public static int getStart(long constituent) {
+      return (int) ((constituent >>> POSITION_BITS) & POSITION_MASK);
+    }
+
+    public static int getEnd(long constituent) {
+      return (int) (constituent & POSITION_MASK);
+    }
+
+    public synchronized int getNumLabels() {
+      return labels.size();
+    }
+
+    public synchronized L getLabel(int labelId) {
+      return labels.get(labelId);
+    }
+
+    private int getOrAddLabelId(L label) {
+      Integer labelId = labelIds.get(label);
+      if (labelId != null) return labelId;
+      synchronized (this) {
+        labelId = labelIds.get(label);
+        if (labelId == null) {
+          labelId = labels.size();
+          labels.add(label);
+          labelIds.put(label, labelId);
+        }
+        return labelId;
+      }
+    }
+
+    private long pack(L label, int start, int end) {
+      if (end > POSITION_MASK) throw new IllegalArgumentException("Sentence too long to evaluate: " + end);
+      return ((long) getOrAddLabelId(label) << (2 * POSITION_BITS)) | ((long) start << POSITION_BITS) | end;
+    }
+
+    private int addConstituents(Tree<L> tree, int start, ConstituentBuffer buffer) {
+      if (tree.isLeaf() || tree.isPreTerminal()) {
+        if (punctuationTags.contains(tree.getLabel()))
+          return start;
+        else
+          return start + 1;
+      }
+      int end = start;
+      for (Tree<L> child : tree.getChildren()) {
+        end = addConstituents(child, end, buffer);
+      }
+      L label = tree.getLabel();
+      if (! labelsToIgnore.contains(label)) {
+        buffer.add(pack(label, start, end));
+      }
+      return end;
+    }
+
+    private void sortAndDedupe(ConstituentBuffer buffer) {
+      Arrays.sort(buffer.constituents, 0, buffer.size);
+      if (countDuplicates) return;
+      int numUnique = 0;
+      for (int i = 0; i < buffer.size; i++) {
+        if (numUnique == 0 || buffer.constituents[i] != buffer.constituents[numUnique - 1])
+          buffer.constituents[numUnique++] = buffer.constituents[i];
+      }
+      buffer.size = numUnique;
+    }
+
+    private int addConstituents(TreeBank<L> trees, int node, int start, ConstituentBuffer buffer) {
+      if (trees.isLeaf(node) || trees.isPreTerminal(node)) {
+        if (punctuationTags.contains(trees.getLabel(node)))
+          return start;
+        else
+          return start + 1;
+      }
+      int end = start;
+      for (int child = trees.getFirstChild(node); child != TreeBank.NONE; child = trees.getNextSibling(child)) {
+        end = addConstituents(trees, child, end, buffer);
+      }
+      L label = trees.getLabel(node);
+      if (! labelsToIgnore.contains(label)) {
+        buffer.add(pack(label, start, end));
+      }
+      return end;
+    }
+
+    private void fill(Tree<L> tree, ConstituentBuffer buffer) {
+      buffer.size = 0;
+      addConstituents(tree, 0, buffer);
+      sortAndDedupe(buffer);
+    }
+
+    private void fill(TreeBank<L> trees, int root, ConstituentBuffer buffer) {
+      buffer.size = 0;
+      addConstituents(trees, root, 0, buffer);
+      sortAndDedupe(buffer);
+    }
+
+    /**
+     * The sorted constituents of the given tree, as packed longs.
+     */
+    public long[] getConstituents(Tree<L> tree) {
+      ConstituentBuffer buffer = new ConstituentBuffer();
+      fill(tree, buffer);
+      return Arrays.copyOf(buffer.constituents, buffer.size);
+    }
+
+    /**
+     * Scores one sentence, adding its counts (and per-label counts, if the accumulator tracks them) to the given
+     * accumulator.
+     */
+    public void evaluate(Tree<L> guess, Tree<L> gold, EvalAccumulator accumulator) {
+      ConstituentBuffer[] threadBuffers = buffers.get();
+      ConstituentBuffer guessed = threadBuffers[0];
+      ConstituentBuffer golds = threadBuffers[1];
+      fill(guess, guessed);
+      fill(gold, golds);
+      score(guessed, golds, accumulator);
+    }
+
+    /**
+     * Scores one sentence stored in tree arenas, reading labels and children straight from the arrays.  The counts
+     * are the same as for the corresponding Tree objects.
+     */
+    public void evaluate(TreeBank<L> guesses, int guessRoot, TreeBank<L> golds, int goldRoot, EvalAccumulator accumulator) {
+      ConstituentBuffer[] threadBuffers = buffers.get();
+      fill(guesses, guessRoot, threadBuffers[0]);
+      fill(golds, goldRoot, threadBuffers[1]);
+      score(threadBuffers[0], threadBuffers[1], accumulator);
+    }
+
+    private void score(ConstituentBuffer guessed, ConstituentBuffer golds, EvalAccumulator accumulator) {
+      int correct = 0;
+      int guessedI = 0;
+      int goldI = 0;
+      while (guessedI < guessed.size && goldI < golds.size) {
+        long guessedConstituent = guessed.constituents[guessedI];
+        long goldConstituent = golds.constituents[goldI];
+        if (guessedConstituent < goldConstituent) {
+          guessedI++;
+        } else if (guessedConstituent > goldConstituent) {
+          goldI++;
+        } else {
+          if (accumulator.trackLabels) accumulator.addCorrectLabel(getLabelId(guessedConstituent));
+          correct++;
+          guessedI++;
+          goldI++;
+        }
+      }
+      if (accumulator.trackLabels) {
+        for (int i = 0; i < guessed.size; i++) {
+          accumulator.addGuessedLabel(getLabelId(guessed.constituents[i]));
+        }
+        for (int i = 0; i < golds.size; i++) {
+          accumulator.addGoldLabel(getLabelId(golds.constituents[i]));
+        }
+      }
+      accumulator.add(correct, guessed.size, golds.size);
+    }
+
+    public PackedLabeledConstituentEval(Set<L> labelsToIgnore, Set<L> punctuationTags) {
+      this(labelsToIgnore, punctuationTags, false);
+    }
+
+    public PackedLabeledConstituentEval(Set<L> labelsToIgnore, Set<L> punctuationTags, boolean countDuplicates) {
+      this.labelsToIgnore = labelsToIgnore;
+      this.punctuationTags = punctuationTags;
+      this.countDuplicates = countDuplicates;
+    }
+  }
+
   public static void main(String[] args) throws Throwable {
     Tree<String> goldTree = (new Trees.PennTreeReader(new StringReader("(ROOT (S (NP (DT the) (NN can)) (VP (VBD fell))))"))).next();
     Tree<String> guessedTree = (new Trees.PennTreeReader(new StringReader("(ROOT (S (NP (DT the)) (VP (MB can) (VP (VBD fell)))))"))).next();
     LabeledConstituentEval<String> eval = new LabeledConstituentEval<String>(Collections.singleton("ROOT"), new HashSet<String>());
     eval.evaluate(guessedTree, goldTree);
     eval.display(true);
+    PackedLabeledConstituentEval<String> packedEval = new PackedLabeledConstituentEval<String>(Collections.singleton("ROOT"), new HashSet<String>());
+    EvalAccumulator accumulator = new EvalAccumulator();
+    packedEval.evaluate(guessedTree, goldTree, accumulator);
+    accumulator.display(" [Packed] ", new PrintWriter(System.out, true));
   }
 }
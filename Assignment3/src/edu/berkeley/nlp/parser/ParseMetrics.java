@@ -0,0 +1,128 @@
+package edu.berkeley.nlp.parser;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Per-sentence instrumentation for chart parsers.  The parser fills in the chart counters (cells, states, rule
+ * relaxations and backpointer writes) while it parses; whoever calls the parser brackets the call with start() and
+ * stop() to record wall time and the bytes allocated by the parsing thread.
+ */
+public class ParseMetrics {
+  int sentenceLength;
+  int populatedCells;
+  long liveStates;
+  int maxLiveStates;
+  long binaryRelaxations;
+  long unaryRelaxations;
+  long backpointerWrites;
+  long elapsedNanos;
+  long allocatedBytes = -1;
+
+  private long startNanos;
+  private long startBytes;
+
+  public int getSentenceLength() {
+    return sentenceLength;
+  }
+
+  public int getPopulatedCells() {
+    return populatedCells;
+  }
+
+  public long getLiveStates() {
+    return liveStates;
+  }
+
+  public int getMaxLiveStates() {
+    return maxLiveStates;
+  }
+
+  public double getLiveStatesPerCell() {
+    return (populatedCells > 0 ? liveStates / (double) populatedCells : 0.0);
+  }
+
+  public long getBinaryRelaxations() {
+    return binaryRelaxations;
+  }
+
+  public long getUnaryRelaxations() {
+    return unaryRelaxations;
+  }
+
+  public long getBackpointerWrites() {
+    return backpointerWrites;
+  }
+
+  public long getElapsedNanos() {
+    return elapsedNanos;
+  }
+
+  /**
+   * Bytes allocated by the parsing thread between start() and stop(), or -1 if the JVM cannot report it.
+   */
+  public long getAllocatedBytes() {
+    return allocatedBytes;
+  }
+
+  /**
+   * Records a chart cell which ended up holding the given number of states.  Empty cells are ignored.
+   */
+  public void addCell(int statesInCell) {
+    if (statesInCell == 0) return;
+    populatedCells++;
+    liveStates += statesInCell;
+    if (statesInCell > maxLiveStates)
+      maxLiveStates = statesInCell;
+  }
+
+  public void addBinaryRelaxations(long count) {
+    binaryRelaxations += count;
+  }
+
+  public void addUnaryRelaxations(long count) {
+    unaryRelaxations += count;
+  }
+
+  public void addBackpointerWrites(long count) {
+    backpointerWrites += count;
+  }
+
+  /**
+   * Clears all counters so this object can be reused for the next sentence.
+   */
+  public void reset(int sentenceLength) {
+    this.sentenceLength = sentenceLength;
+    populatedCells = 0;
+    liveStates = 0;
+    maxLiveStates = 0;
+    binaryRelaxations = 0;
+    unaryRelaxations = 0;
+    backpointerWrites = 0;
+    elapsedNanos = 0;
+    allocatedBytes = -1;
+  }
+
+  public void start() {
+    startBytes = currentThreadAllocatedBytes();
+    startNanos = System.nanoTime();
+  }
+
+  public void stop() {
+    elapsedNanos = System.nanoTime() - startNanos;
+    long endBytes = currentThreadAllocatedBytes();
+    allocatedBytes = (startBytes >= 0 && endBytes >= 0 ? endBytes - startBytes : -1);
+  }
+
+  private static long currentThreadAllocatedBytes() {
+    ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    if (!(threadBean instanceof com.sun.management.ThreadMXBean)) return -1;
+    com.sun.management.ThreadMXBean sunThreadBean = (com.sun.management.ThreadMXBean) threadBean;
+    if (!sunThreadBean.isThreadAllocatedMemoryEnabled()) return -1;
+    return sunThreadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  public String toString() {
+    return "length: " + sentenceLength + " cells: " + populatedCells + " states: " + liveStates + " (max " + maxLiveStates + ") binary: " + binaryRelaxations + " unary: " + unaryRelaxations + " backpointers: " + backpointerWrites + " ms: " + elapsedNanos / 1000000 + " bytes: " + allocatedBytes;
+  }
+}
@@ -0,0 +1,121 @@
+package edu.berkeley.nlp.parser;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aggregates ParseMetrics by sentence length, together with the constituent counts from the evaluator, and writes the
+ * result as CSV or JSON so runs can be compared side by side.
+ */
+public class ParseMetricsTable {
+
+  static class Row {
+    int sentences;
+    long populatedCells;
+    long liveStates;
+    int maxLiveStates;
+    long binaryRelaxations;
+    long unaryRelaxations;
+    long backpointerWrites;
+    long elapsedNanos;
+    long allocatedBytes;
+    boolean allocatedBytesKnown = true;
+    int correct;
+    int guessed;
+    int gold;
+
+    void add(ParseMetrics metrics, int correct, int guessed, int gold) {
+      sentences++;
+      populatedCells += metrics.getPopulatedCells();
+      liveStates += metrics.getLiveStates();
+      maxLiveStates = Math.max(maxLiveStates, metrics.getMaxLiveStates());
+      binaryRelaxations += metrics.getBinaryRelaxations();
+      unaryRelaxations += metrics.getUnaryRelaxations();
+      backpointerWrites += metrics.getBackpointerWrites();
+      elapsedNanos += metrics.getElapsedNanos();
+      if (metrics.getAllocatedBytes() < 0)
+        allocatedBytesKnown = false;
+      else
+        allocatedBytes += metrics.getAllocatedBytes();
+      this.correct += correct;
+      this.guessed += guessed;
+      this.gold += gold;
+    }
+
+    double getF1() {
+      double precision = (guessed > 0 ? correct / (double) guessed : 1.0);
+      double recall = (gold > 0 ? correct / (double) gold : 1.0);
+      return (precision > 0.0 && recall > 0.0 ? 2.0 / (1.0 / precision + 1.0 / recall) : 0.0);
+    }
+  }
+
+  static final String[] COLUMNS = {"length", "sentences", "cells", "states", "statesPerCell", "maxStatesPerCell",
+      "binaryRelaxations", "unaryRelaxations", "backpointerWrites", "msPerSentence", "bytesPerSentence",
+      "correct", "guessed", "gold", "f1"};
+
+  Map<Integer, Row> rowsByLength = new TreeMap<Integer, Row>();
+
+  /**
+   * Adds one parsed sentence.  The constituent counts are the ones the evaluator scored for that sentence.
+   */
+  public synchronized void add(ParseMetrics metrics, int correct, int guessed, int gold) {
+    Row row = rowsByLength.get(metrics.getSentenceLength());
+    if (row == null) {
+      row = new Row();
+      rowsByLength.put(metrics.getSentenceLength(), row);
+    }
+    row.add(metrics, correct, guessed, gold);
+  }
+
+  private static Object[] values(int length, Row row) {
+    double statesPerCell = (row.populatedCells > 0 ? row.liveStates / (double) row.populatedCells : 0.0);
+    double msPerSentence = row.elapsedNanos / 1000000.0 / row.sentences;
+    Object bytesPerSentence = (row.allocatedBytesKnown ? (Object) (row.allocatedBytes / row.sentences) : null);
+    return new Object[]{length, row.sentences, row.populatedCells, row.liveStates, statesPerCell, row.maxLiveStates,
+        row.binaryRelaxations, row.unaryRelaxations, row.backpointerWrites, msPerSentence, bytesPerSentence,
+        row.correct, row.guessed, row.gold, row.getF1()};
+  }
+
+  private static String format(Object value) {
+    if (value instanceof Double)
+      return String.format(Locale.ROOT, "%.4f", (Double) value);
+    return String.valueOf(value);
+  }
+
+  public synchronized void writeCsv(Writer out) throws IOException {
+    for (int i = 0; i < COLUMNS.length; i++) {
+      if (i > 0) out.write(',');
+      out.write(COLUMNS[i]);
+    }
+    out.write('\n');
+    for (Map.Entry<Integer, Row> entry : rowsByLength.entrySet()) {
+      Object[] values = values(entry.getKey(), entry.getValue());
+      for (int i = 0; i < values.length; i++) {
+        if (i > 0) out.write(',');
+        if (values[i] != null) out.write(format(values[i]));
+      }
+      out.write('\n');
+    }
+    out.flush();
+  }
+
+  public synchronized void writeJson(Writer out) throws IOException {
+    out.write("[");
+    boolean firstRow = true;
+    for (Map.Entry<Integer, Row> entry : rowsByLength.entrySet()) {
+      Object[] values = values(entry.getKey(), entry.getValue());
+      out.write(firstRow ? "\n  {" : ",\n  {");
+      for (int i = 0; i < values.length; i++) {
+        if (i > 0) out.write(", ");
+        out.write("\"" + COLUMNS[i] + "\": " + format(values[i]));
+      }
+      out.write("}");
+      firstRow = false;
+    }
+    out.write("\n]\n");
+    out.flush();
+  }
+}
@@ -3,9 +3,6 @@ package edu.berkeley.nlp.util;
 import java.io.Serializable;
 import java.util.Comparator;
 
-import com.sun.org.apache.bcel.internal.classfile.Code;
-
-
 /**
  * A generic-typed pair of objects.
  * @author Dan Klein